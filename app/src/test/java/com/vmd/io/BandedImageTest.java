@@ -0,0 +1,68 @@
+package com.vmd.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+
+/**
+ * El JPEG se escribe franja a franja, igual que el PNG, y sale idéntico al
+ * de la imagen completa.
+ */
+class BandedImageTest {
+
+    private static final int W = 300, H = 1000, BAND = 64;
+
+    private static int pixel(int x, int y) {
+        return 0xff000000 | (x * 7 & 0xff) << 16 | (y * 3 & 0xff) << 8 | (x ^ y) & 0xff;
+    }
+
+    private static int[] band(int y, int h) {
+        int[] px = new int[W * h];
+        for (int r = 0; r < h; r++) {
+            for (int x = 0; x < W; x++) {
+                px[r * W + x] = pixel(x, y + r);
+            }
+        }
+        return px;
+    }
+
+    private static byte[] encode(RenderedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    void jpegReadsBandsInOrder() throws IOException {
+        List<Integer> asked = new ArrayList<>();
+        BandedImage banded = new BandedImage(W, H, BAND, false, (y, h) -> {
+            asked.add(y);
+            return band(y, h);
+        });
+        BufferedImage full = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
+        full.setRGB(0, 0, W, H, band(0, H), 0, W);
+
+        assertArrayEquals(encode(full, "jpg"), encode(banded, "jpg"));
+        List<Integer> expected = new ArrayList<>();
+        for (int y = 0; y < H; y += BAND) {
+            expected.add(y);
+        }
+        assertEquals(expected, asked);
+    }
+
+    @Test
+    void pngMatchesFullImage() throws IOException {
+        BandedImage banded = new BandedImage(W, H, BAND, true, BandedImageTest::band);
+        BufferedImage full = new BufferedImage(W, H, BufferedImage.TYPE_INT_ARGB);
+        full.setRGB(0, 0, W, H, band(0, H), 0, W);
+        assertArrayEquals(encode(full, "png"), encode(banded, "png"));
+    }
+}
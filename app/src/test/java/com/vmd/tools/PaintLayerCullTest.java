@@ -0,0 +1,99 @@
+package com.vmd.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import com.vmd.history.Command;
+import com.vmd.pixels.Orientation;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import javafx.application.Platform;
+import javafx.geometry.BoundingBox;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Las teselas fuera de la vista se ocultan; leerlas (guardar, girar,
+ * deshacer, soltar las vacías) tiene que ver su pintura igual.
+ */
+class PaintLayerCullTest {
+
+    private static final int TILE = PaintLayer.tileSize();
+
+    @BeforeAll
+    static void startFx() throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(1);
+        try {
+            Platform.startup(ready::countDown);
+        } catch (IllegalStateException ex) {
+            ready.countDown();      // ya arrancado
+        }
+        ready.await();
+        Platform.setImplicitExit(false);
+    }
+
+    // Un punto en la primera tesela y otro en la última; solo la primera
+    // queda en la vista
+    private static PaintLayer twoTilesOneCulled() {
+        PaintLayer p = new PaintLayer();
+        p.setSize(4 * TILE, 4 * TILE);
+        p.beginStroke(Color.CRIMSON, 20);
+        p.strokePolyline(new double[]{TILE / 2.0}, new double[]{TILE / 2.0}, 1);
+        p.beginStroke(Color.CRIMSON, 20);
+        p.strokePolyline(new double[]{3.5 * TILE}, new double[]{3.5 * TILE}, 1);
+        p.setViewport(new BoundingBox(0, 0, TILE, TILE), 1);
+        return p;
+    }
+
+    @Test
+    void packKeepsCulledTiles() throws Exception {
+        assertEquals(2, (int) onFx(() -> twoTilesOneCulled().packedTiles().size()));
+    }
+
+    @Test
+    void orientKeepsCulledTiles() throws Exception {
+        assertEquals(2, (int) onFx(() -> {
+            PaintLayer p = twoTilesOneCulled();
+            p.orient(Orientation.ROTATE_180);
+            return p.packedTiles().size();
+        }));
+    }
+
+    @Test
+    void clearUndoRestoresCulledTiles() throws Exception {
+        assertEquals(2, (int) onFx(() -> {
+            PaintLayer p = twoTilesOneCulled();
+            p.beginEdit();
+            p.clear();
+            Command c = p.endEdit();
+            assertNotNull(c);
+            c.undo();
+            return p.packedTiles().size();
+        }));
+    }
+
+    @Test
+    void releaseKeepsPaintedCulledTiles() throws Exception {
+        assertEquals(2, (int) onFx(() -> {
+            PaintLayer p = twoTilesOneCulled();
+            // la goma toca la tesela oculta sin llegar a su pintura
+            p.erasePolyline(new double[]{3 * TILE + 5.0}, new double[]{3 * TILE + 5.0}, 1, 4);
+            p.releaseEmptyTiles();
+            return p.packedTiles().size();
+        }));
+    }
+
+    private static <T> T onFx(Callable<T> c) throws Exception {
+        FutureTask<T> f = new FutureTask<>(c);
+        Platform.runLater(f);
+        try {
+            return f.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw cause instanceof Exception ? (Exception) cause : ex;
+        }
+    }
+}
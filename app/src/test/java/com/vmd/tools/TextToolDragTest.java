@@ -0,0 +1,98 @@
+package com.vmd.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.vmd.edit.Steps;
+import com.vmd.history.History;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import javafx.application.Platform;
+import javafx.event.Event;
+import javafx.event.EventType;
+import javafx.geometry.BoundingBox;
+import javafx.scene.Scene;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.Pane;
+import javafx.scene.text.Text;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Arrastrar una etiqueta la mueve a ella sola: el paneo del visor, que
+ * está en los handlers de {@code layers}, no se entera.
+ */
+class TextToolDragTest {
+
+    @BeforeAll
+    static void startFx() throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(1);
+        try {
+            Platform.startup(ready::countDown);
+        } catch (IllegalStateException ex) {
+            ready.countDown();      // ya arrancado
+        }
+        ready.await();
+        Platform.setImplicitExit(false);
+    }
+
+    @Test
+    void dragOnLabelDoesNotPan() throws Exception {
+        assumeTrue(onFx(TextToolDragTest::canLayoutText), "sin fuentes nativas (pango) no hay etiquetas");
+        int[] pans = onFx(() -> {
+            int[] n = {0, 0};   // paneos con la etiqueta, paneos fuera de ella
+            boolean[] onLabel = {true};
+            Pane layers = new Pane();
+            new Scene(layers, 800, 600);
+            layers.setOnMousePressed(e -> n[onLabel[0] ? 0 : 1]++);
+            layers.setOnMouseDragged(e -> n[onLabel[0] ? 0 : 1]++);
+
+            TextTool tool = new TextTool(layers, new ImageView(), new History(), () -> { }, () -> { });
+            tool.setViewport(new BoundingBox(0, 0, 800, 600), 1);
+            tool.load(Arrays.asList(new Steps.Caption("Hola", 100, 100, 40, 0xffffffff)));
+            tool.show();
+
+            fire(layers, MouseEvent.MOUSE_PRESSED, 110, 90);
+            fire(layers, MouseEvent.MOUSE_DRAGGED, 150, 120);
+            fire(layers, MouseEvent.MOUSE_RELEASED, 150, 120);
+
+            onLabel[0] = false;
+            fire(layers, MouseEvent.MOUSE_PRESSED, 600, 500);
+            fire(layers, MouseEvent.MOUSE_DRAGGED, 650, 520);
+            fire(layers, MouseEvent.MOUSE_RELEASED, 650, 520);
+            return n;
+        });
+        assertEquals(0, pans[0]);
+        assertEquals(2, pans[1]);
+    }
+
+    // Medir texto necesita las bibliotecas de fuentes del sistema
+    private static boolean canLayoutText() {
+        try {
+            return new Text("x").getLayoutBounds().getWidth() > 0;
+        } catch (LinkageError ex) {
+            return false;
+        }
+    }
+
+    private static void fire(Pane target, EventType<MouseEvent> type, double x, double y) {
+        Event.fireEvent(target, new MouseEvent(type, x, y, x, y, MouseButton.PRIMARY, 1,
+                false, false, false, false, true, false, false, false, false, false, null));
+    }
+
+    private static <T> T onFx(Callable<T> c) throws Exception {
+        FutureTask<T> f = new FutureTask<>(c);
+        Platform.runLater(f);
+        try {
+            return f.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw cause instanceof Exception ? (Exception) cause : ex;
+        }
+    }
+}
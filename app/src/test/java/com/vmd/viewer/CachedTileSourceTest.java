@@ -0,0 +1,142 @@
+package com.vmd.viewer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.vmd.pixels.Pixels;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Las teselas se guardan comprimidas, dentro del límite del caché, y una
+ * entrada dañada se vuelve a pedir a la fuente en lugar de fallar.
+ */
+class CachedTileSourceTest {
+
+    private static final int TILE = TiledImageLayer.TILE;
+    private static final int W = 3000, H = 2000;
+    private static final long TABLE_AT = 6 * 4 + 3 * 8;   // tras el encabezado
+    private static final long DATA_AT = TABLE_AT + 8L * ((W + TILE - 1) / TILE) * ((H + TILE - 1) / TILE);
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void startFx() throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(1);
+        try {
+            Platform.startup(ready::countDown);
+        } catch (IllegalStateException ex) {
+            ready.countDown();      // ya arrancado
+        }
+        ready.await();
+        Platform.setImplicitExit(false);
+    }
+
+    // Degradado sin ruido: comprime bien, como una foto con cielo
+    private static final class Gradient implements TileSource {
+
+        int reads;
+
+        @Override
+        public int getWidth() {
+            return W;
+        }
+
+        @Override
+        public int getHeight() {
+            return H;
+        }
+
+        @Override
+        public Image read(int x, int y, int w, int h, int subsampling) {
+            reads++;
+            int ow = (w + subsampling - 1) / subsampling;
+            int oh = (h + subsampling - 1) / subsampling;
+            int[] px = new int[ow * oh];
+            for (int r = 0; r < oh; r++) {
+                for (int c = 0; c < ow; c++) {
+                    px[r * ow + c] = 0xff000000 | (x + c * subsampling) / 12 << 8 | (y + r * subsampling) / 8;
+                }
+            }
+            return Pixels.toImage(px, ow, oh);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private File original() throws IOException {
+        return Files.write(dir.resolve("foto.jpg"), new byte[]{1, 2, 3}).toFile();
+    }
+
+    @Test
+    void tilesAreStoredCompressed() throws IOException {
+        Gradient src = new Gradient();
+        DiskTileCache cache = new DiskTileCache(dir.resolve("tiles").toFile(), 1L << 30);
+        CachedTileSource cached = cache.open(original(), src);
+        assertNotNull(cached);
+
+        int[] first = Pixels.read(cached.read(0, 0, TILE, TILE, 1));
+        int[] again = Pixels.read(cached.read(0, 0, TILE, TILE, 1));
+        assertEquals(1, src.reads);
+        assertArrayEquals(first, again);
+        assertTrue(cached.getFile().length() - DATA_AT < TILE * TILE * 4 / 4);
+        cached.close();
+    }
+
+    @Test
+    void appendRespectsBudget() throws IOException {
+        Gradient src = new Gradient();
+        CachedTileSource cached = new DiskTileCache(dir.resolve("tiles").toFile(), 0).open(original(), src);
+        assertNotNull(cached);
+        long empty = cached.getFile().length();
+
+        cached.read(0, 0, TILE, TILE, 1);
+        cached.read(0, 0, TILE, TILE, 1);
+        assertEquals(2, src.reads);
+        assertEquals(empty, cached.getFile().length());
+        cached.close();
+    }
+
+    @Test
+    void damagedEntryFallsBackToSource() throws IOException {
+        Gradient src = new Gradient();
+        DiskTileCache cache = new DiskTileCache(dir.resolve("tiles").toFile(), 1L << 30);
+        File original = original();
+        CachedTileSource cached = cache.open(original, src);
+        int[] expected = Pixels.read(cached.read(0, 0, TILE, TILE, 1));
+        File file = cached.getFile();
+        cached.close();
+
+        // ancho guardado enorme: sin validar, pediría gigas de memoria
+        try (FileChannel ch = new RandomAccessFile(file, "rw").getChannel()) {
+            ByteBuffer b = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+            ch.read(b, TABLE_AT);
+            long at = b.getLong(0);
+            b.clear().limit(4);
+            b.putInt(0, Integer.MAX_VALUE);
+            ch.write(b, at);
+        }
+
+        cached = cache.open(original, src);
+        assertArrayEquals(expected, Pixels.read(cached.read(0, 0, TILE, TILE, 1)));
+        assertEquals(2, src.reads);
+        cached.close();
+    }
+}
@@ -0,0 +1,105 @@
+package com.vmd.bench;
+
+import com.vmd.history.History;
+import com.vmd.tools.CropTool;
+import com.vmd.tools.PaintLayer;
+import com.vmd.viewer.TiledImageLayer;
+import java.util.concurrent.TimeUnit;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.transform.Scale;
+import javafx.scene.transform.Translate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recorte compacto con {@link CropTool}: recortar al centro y después
+ * {@code compact}, que copia el viewport del preview y suelta las teselas
+ * de pintura de fuera. La pintura es un trazo en diagonal por toda la
+ * imagen, así hay teselas dentro y fuera del recorte.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = {Fx.GLASS, Fx.MONOCLE, Fx.PRISM, Fx.HEADLESS, "-Xmx4g"})
+@State(Scope.Benchmark)
+public class CropBench {
+
+    @Param({"1", "16", "64", "200"})
+    public int mp;
+
+    private int w, h;
+    private int[] argb;
+    private WritableImage preview;
+    private ImageView baseView;
+    private TiledImageLayer tiles;
+    private PaintLayer paint;
+    private History history;
+    private CropTool crop;
+    private double[] diagX, diagY;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Fx.start();
+        w = Sample.width(mp);
+        h = Sample.height(mp);
+        argb = Sample.argb(w, h);
+        int n = Math.max(w, h) / 64 + 1;
+        diagX = new double[n];
+        diagY = new double[n];
+        for (int i = 0; i < n; i++) {
+            diagX[i] = (double) w * i / (n - 1);
+            diagY[i] = (double) h * i / (n - 1);
+        }
+        Fx.run(() -> {
+            preview = Sample.preview(w, h);
+            baseView = new ImageView();
+            tiles = new TiledImageLayer();
+            paint = new PaintLayer();
+            history = new History();
+            Pane layers = new Pane(baseView, tiles, paint);
+            crop = new CropTool(layers, paint, baseView, tiles, new Translate(), new Scale(), history);
+        });
+    }
+
+    // La imagen entera sin recortar, con la pintura ya rasterizada
+    @Setup(Level.Invocation)
+    public void reset() throws Exception {
+        Fx.run(() -> {
+            tiles.setSource(Sample.source(argb, w, h));
+            baseView.setImage(preview);
+            baseView.setViewport(null);
+            baseView.setFitWidth(w);
+            baseView.setFitHeight(h);
+            paint.clear();
+            paint.setSize(w, h);
+            paint.beginEdit();
+            paint.beginStroke(Color.CRIMSON, 24);
+            paint.strokePolyline(diagX, diagY, diagX.length);
+            paint.endEdit();
+            history.clear();
+        });
+    }
+
+    @Benchmark
+    public boolean cropAndCompact() throws Exception {
+        return Fx.call(() -> {
+            crop.crop(w / 4, h / 4, w / 2, h / 2);
+            crop.compact();
+            return paint.isEmpty();
+        });
+    }
+}
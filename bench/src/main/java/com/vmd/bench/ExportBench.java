@@ -0,0 +1,100 @@
+package com.vmd.bench;
+
+import com.vmd.io.ExportTask;
+import com.vmd.pixels.ColorPipeline;
+import com.vmd.tools.PaintLayer;
+import com.vmd.viewer.TileSource;
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Exportación completa con {@link ExportTask}: franjas de la fuente con el
+ * filtro de color, captura de la pintura de encima en el hilo de JavaFX y
+ * {@code BandedImage} al escritor de ImageIO.
+ *
+ * Cada exportación tarda de décimas a decenas de segundos según el
+ * tamaño: se mide una por iteración.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {Fx.GLASS, Fx.MONOCLE, Fx.PRISM, Fx.HEADLESS, "-Xmx4g"})
+@State(Scope.Benchmark)
+public class ExportBench {
+
+    @Param({"1", "16", "64", "200"})
+    public int mp;
+
+    @Param({"png", "jpg"})
+    public String format;
+
+    private ImageView baseView;
+    private Pane layers;
+    private PaintLayer paint;
+    private ColorPipeline filter;
+    private TileSource source;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Fx.start();
+        int w = Sample.width(mp), h = Sample.height(mp);
+        source = Sample.source(Sample.argb(w, h), w, h);
+        file = File.createTempFile("vmd-bench", "." + format);
+
+        double[] params = new double[5];
+        params[ColorPipeline.CONTRAST] = 0.2;
+        params[ColorPipeline.SATURATION] = -0.3;
+        filter = new ColorPipeline(params);
+
+        // un trazo en diagonal: hay franjas con pintura y franjas sin nada
+        int n = Math.max(w, h) / 64 + 1;
+        double[] xs = new double[n], ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = (double) w * i / (n - 1);
+            ys[i] = (double) h * i / (n - 1);
+        }
+        Fx.run(() -> {
+            baseView = new ImageView(Sample.preview(w, h));
+            baseView.setFitWidth(w);
+            baseView.setFitHeight(h);
+            paint = new PaintLayer();
+            paint.setSize(w, h);
+            paint.beginStroke(Color.CRIMSON, 24);
+            paint.strokePolyline(xs, ys, n);
+            paint.setCulling(false);
+            layers = new Pane(baseView, paint);
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public File export() throws Exception {
+        ExportTask task = Fx.call(() -> new ExportTask(source, baseView, layers, Arrays.asList(baseView),
+                paint::intersects, filter, file, format));
+        task.run();
+        return task.get();
+    }
+}
@@ -0,0 +1,57 @@
+package com.vmd.bench;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import javafx.application.Platform;
+
+/**
+ * JavaFX sin pantalla para los benchmarks que usan Canvas: Monocle con el
+ * renderizador por software. Las opciones van en el {@code @Fork} de cada
+ * benchmark.
+ */
+final class Fx {
+
+    static final String GLASS = "-Dglass.platform=Monocle";
+    static final String MONOCLE = "-Dmonocle.platform=Headless";
+    static final String PRISM = "-Dprism.order=sw";
+    static final String HEADLESS = "-Djava.awt.headless=true";
+
+    private static boolean started = false;
+
+    private Fx() {
+    }
+
+    static synchronized void start() throws InterruptedException {
+        if (started) {
+            return;
+        }
+        CountDownLatch ready = new CountDownLatch(1);
+        Platform.startup(ready::countDown);
+        ready.await();
+        Platform.setImplicitExit(false);
+        started = true;
+    }
+
+    /**
+     * Corre {@code c} en el hilo de JavaFX y espera el resultado.
+     */
+    static <T> T call(Callable<T> c) throws Exception {
+        FutureTask<T> f = new FutureTask<>(c);
+        Platform.runLater(f);
+        try {
+            return f.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw cause instanceof Exception ? (Exception) cause : ex;
+        }
+    }
+
+    static void run(Runnable r) throws Exception {
+        call(() -> {
+            r.run();
+            return null;
+        });
+    }
+}
@@ -0,0 +1,73 @@
+package com.vmd.bench;
+
+import com.vmd.pixels.ColorPipeline;
+import com.vmd.pixels.Orientation;
+import com.vmd.pixels.Pixels;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Núcleos de píxeles sin JavaFX: ajuste de color, giro de 90° y el nivel
+ * de detalle a la mitad, sobre la imagen entera.
+ *
+ * A 200 MP la imagen, la copia de trabajo y el resultado del giro son
+ * 800 MB cada uno: el heap se fija en 6 GB.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx6g")
+@State(Scope.Benchmark)
+public class KernelBench {
+
+    @Param({"1", "16", "64", "200"})
+    public int mp;
+
+    private int w, h;
+    private int[] img, work;
+    private ColorPipeline color;
+
+    @Setup
+    public void setup() {
+        w = Sample.width(mp);
+        h = Sample.height(mp);
+        img = Sample.argb(w, h);
+        work = new int[img.length];
+
+        double[] params = new double[5];
+        params[ColorPipeline.BRIGHTNESS] = 0.1;
+        params[ColorPipeline.CONTRAST] = 0.2;
+        params[ColorPipeline.SATURATION] = -0.3;
+        params[ColorPipeline.HUE] = 0.1;
+        params[ColorPipeline.SEPIA] = 0.2;
+        color = new ColorPipeline(params);
+    }
+
+    @Benchmark
+    public int[] colorAdjust() {
+        System.arraycopy(img, 0, work, 0, img.length);
+        color.apply(work, w, h);
+        return work;
+    }
+
+    @Benchmark
+    public int[] rotate90() {
+        return Orientation.apply(img, w, h, Orientation.ROTATE_90);
+    }
+
+    @Benchmark
+    public int[] halve() {
+        return Pixels.halve(img, w, h);
+    }
+}
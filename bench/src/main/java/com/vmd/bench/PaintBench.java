@@ -0,0 +1,125 @@
+package com.vmd.bench;
+
+import com.vmd.history.Command;
+import com.vmd.tools.PaintLayer;
+import java.util.concurrent.TimeUnit;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pincel y goma sobre {@link PaintLayer}, por segmento, como los manda el
+ * puntero: un trazo de {@link #SEGMENTS} segmentos dentro de una edición,
+ * hasta el {@code endEdit} que arma el {@code PaintEdit} para deshacer (y
+ * que, al capturar las teselas, obliga a Canvas a rasterizar todo). La
+ * goma incluye soltar las teselas que quedan vacías.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = {Fx.GLASS, Fx.MONOCLE, Fx.PRISM, Fx.HEADLESS, "-Xmx2g"})
+public class PaintBench {
+
+    static final int SEGMENTS = 256;
+
+    @State(Scope.Benchmark)
+    public static class Layer {
+
+        @Param({"1", "16", "64", "200"})
+        public int mp;
+
+        PaintLayer layer;
+        double[][] xs, ys;     // un segmento (dos puntos) por evento
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            Fx.start();
+            int w = Sample.width(mp), h = Sample.height(mp);
+            // zigzag en el centro, con el paso de un puntero rápido
+            double step = Math.min(6, 0.8 * w / SEGMENTS);
+            double x0 = w / 2.0 - step * SEGMENTS / 2, cy = h / 2.0;
+            xs = new double[SEGMENTS][];
+            ys = new double[SEGMENTS][];
+            for (int i = 0; i < SEGMENTS; i++) {
+                xs[i] = new double[]{x0 + i * step, x0 + (i + 1) * step};
+                ys[i] = new double[]{cy + 120 * Math.sin(i * 0.05), cy + 120 * Math.sin((i + 1) * 0.05)};
+            }
+            layer = Fx.call(() -> {
+                PaintLayer p = new PaintLayer();
+                p.setSize(w, h);
+                return p;
+            });
+        }
+
+        void paint() {
+            layer.beginEdit();
+            layer.beginStroke(Color.CRIMSON, 24);
+            for (int i = 0; i < SEGMENTS; i++) {
+                layer.strokePolyline(xs[i], ys[i], 2);
+            }
+        }
+    }
+
+    /**
+     * Capa vacía antes de cada trazo.
+     */
+    @State(Scope.Benchmark)
+    public static class Blank extends Layer {
+
+        @Setup(Level.Invocation)
+        public void clear() throws Exception {
+            Fx.run(layer::clear);
+        }
+    }
+
+    /**
+     * Capa con el trazo ya pintado (y rasterizado) antes de cada goma.
+     */
+    @State(Scope.Benchmark)
+    public static class Painted extends Layer {
+
+        @Setup(Level.Invocation)
+        public void repaint() throws Exception {
+            Fx.run(() -> {
+                layer.clear();
+                paint();
+                layer.endEdit();
+            });
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEGMENTS)
+    public Command stroke(Blank s) throws Exception {
+        return Fx.call(() -> {
+            s.paint();
+            return s.layer.endEdit();
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEGMENTS)
+    public Command erase(Painted s) throws Exception {
+        return Fx.call(() -> {
+            PaintLayer p = s.layer;
+            p.beginEdit();
+            for (int i = 0; i < SEGMENTS; i++) {
+                p.erasePolyline(s.xs[i], s.ys[i], 2, 48);
+            }
+            p.releaseEmptyTiles();
+            return p.endEdit();
+        });
+    }
+}
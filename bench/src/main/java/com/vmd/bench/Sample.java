@@ -0,0 +1,94 @@
+package com.vmd.bench;
+
+import com.vmd.viewer.TileSource;
+import com.vmd.viewer.TiledImageLayer;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Imágenes de prueba: tamaño por megapíxeles (4:3) y un contenido que ni
+ * comprime demasiado ni es ruido puro.
+ */
+final class Sample {
+
+    private Sample() {
+    }
+
+    static int width(int mp) {
+        return (int) Math.round(Math.sqrt(mp * 1e6 * 4 / 3));
+    }
+
+    static int height(int mp) {
+        return (int) Math.round(mp * 1e6 / width(mp));
+    }
+
+    // Degradé con algo de ruido
+    static int[] argb(int w, int h) {
+        int[] px = new int[w * h];
+        int seed = 12345;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                seed = seed * 1103515245 + 12345;
+                int n = (seed >>> 24) & 0x1f;
+                int r = (int) ((x * 255L / w + n) & 0xff);
+                int g = (int) ((y * 255L / h + n) & 0xff);
+                int b = (x + y) & 0xff;
+                px[y * w + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return px;
+    }
+
+    /**
+     * Preview de una imagen de w × h, del tamaño que usa el visor.
+     */
+    static WritableImage preview(int w, int h) {
+        double r = Math.min(1, (double) TiledImageLayer.PREVIEW_MAX / Math.max(w, h));
+        int pw = Math.max(1, (int) Math.round(w * r)), ph = Math.max(1, (int) Math.round(h * r));
+        WritableImage img = new WritableImage(pw, ph);
+        img.getPixelWriter().setPixels(0, 0, pw, ph, PixelFormat.getIntArgbInstance(), argb(pw, ph), 0, pw);
+        return img;
+    }
+
+    /**
+     * Fuente sobre una imagen ya decodificada, como la que arma el editor
+     * con un archivo abierto; cada lectura es una copia.
+     */
+    static TileSource source(int[] argb, int w, int h) {
+        return new TileSource() {
+            @Override
+            public int getWidth() {
+                return w;
+            }
+
+            @Override
+            public int getHeight() {
+                return h;
+            }
+
+            @Override
+            public Image read(int x, int y, int rw, int rh, int sub) {
+                int ow = (rw + sub - 1) / sub, oh = (rh + sub - 1) / sub;
+                WritableImage img = new WritableImage(ow, oh);
+                if (sub == 1) {
+                    img.getPixelWriter().setPixels(0, 0, ow, oh, PixelFormat.getIntArgbInstance(), argb, y * w + x, w);
+                    return img;
+                }
+                int[] row = new int[ow];
+                for (int r = 0; r < oh; r++) {
+                    int s = (y + r * sub) * w + x;
+                    for (int c = 0; c < ow; c++) {
+                        row[c] = argb[s + c * sub];
+                    }
+                    img.getPixelWriter().setPixels(0, r, ow, 1, PixelFormat.getIntArgbInstance(), row, 0, ow);
+                }
+                return img;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
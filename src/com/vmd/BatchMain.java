@@ -0,0 +1,87 @@
+package com.vmd;
+
+import com.vmd.batch.BatchRunner;
+import com.vmd.edit.Recipe;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Proceso por lotes sin ventana: aplica una receta a todas las imágenes
+ * de una carpeta.
+ *
+ * <pre>
+ * java -cp ... com.vmd.BatchMain receta.txt entrada/ salida/ [--format png|jpg] [--threads N] [--subsample N]
+ * </pre>
+ *
+ * Con {@code --subsample N} la salida mide 1/N del original; la receta se
+ * aplica ya a ese tamaño. Si dos entradas darían la misma salida (a.png y
+ * a.jpg) se les agrega la extensión original: a-png.png, a-jpg.png.
+ */
+public class BatchMain {
+
+    private static final List<String> INPUTS = Arrays.asList(".png", ".jpg", ".jpeg", ".bmp", ".gif");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+
+        List<String> pos = new ArrayList<>();
+        String format = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int subsampling = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--format":
+                    format = args[++i].toLowerCase(Locale.ROOT);
+                    if (format.equals("jpeg")) {
+                        format = "jpg";
+                    }
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--subsample":
+                    subsampling = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    pos.add(args[i]);
+            }
+        }
+        if (pos.size() != 3) {
+            System.err.println("Uso: BatchMain receta entrada/ salida/ [--format png|jpg] [--threads N] [--subsample N]");
+            System.exit(2);
+        }
+
+        Recipe recipe = Recipe.read(new File(pos.get(0)));
+        File inDir = new File(pos.get(1));
+        File outDir = new File(pos.get(2));
+        File[] files = inDir.listFiles(f -> f.isFile()
+                && INPUTS.stream().anyMatch(ext -> f.getName().toLowerCase(Locale.ROOT).endsWith(ext)));
+        if (files == null) {
+            throw new IOException("No es una carpeta: " + inDir.getAbsolutePath());
+        }
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            throw new IOException("No se pudo crear " + outDir.getAbsolutePath());
+        }
+        Arrays.sort(files);
+
+        AtomicInteger count = new AtomicInteger();
+        long t0 = System.nanoTime();
+        int failed = new BatchRunner(recipe, format, threads, subsampling).run(Arrays.asList(files), outDir, (in, out, error) -> {
+            int n = count.incrementAndGet();
+            if (error != null) {
+                System.err.println("[" + n + "/" + files.length + "] " + in.getName() + ": " + error.getMessage());
+            } else {
+                System.out.println("[" + n + "/" + files.length + "] " + out.getName());
+            }
+        });
+        double s = (System.nanoTime() - t0) / 1e9;
+        System.out.printf(Locale.ROOT, "%d imágenes en %.1f s (%.1f/s), %d con error%n",
+                files.length, s, files.length / s, failed);
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
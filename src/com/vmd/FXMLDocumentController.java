@@ -1,47 +1,71 @@
 package com.vmd;
 
 import com.vmd.controllers.UploadViewController;
+import com.vmd.edit.Recipe;
+import com.vmd.edit.Step;
+import com.vmd.edit.Steps;
+import com.vmd.edit.Stroke;
+import com.vmd.history.History;
+import com.vmd.io.ExportTask;
+import com.vmd.perf.FrameMonitor;
+import com.vmd.perf.PerfOverlay;
+import com.vmd.pixels.ColorPipeline;
+import com.vmd.project.ProjectFile;
 import com.vmd.tools.BrushTool;
 import com.vmd.tools.ColorAdjustTool;
 import com.vmd.tools.CropTool;
 import com.vmd.tools.EraseTool;
 import com.vmd.tools.FlipTool;
+import com.vmd.tools.Orienter;
+import com.vmd.tools.PaintLayer;
 import com.vmd.tools.RotateTool;
 import com.vmd.tools.StickerTool;
 import com.vmd.tools.TextTool;
+import com.vmd.viewer.ImageLoadTask;
+import com.vmd.viewer.OrientedTileSource;
+import com.vmd.viewer.TiledImageLayer;
+import com.vmd.viewer.ViewerMotion;
+import com.vmd.viewer.ViewportAware;
 import java.awt.Desktop;
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javafx.embed.swing.SwingFXUtils;
-
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
+import javafx.geometry.Bounds;
+import javafx.geometry.Insets;
 import javafx.geometry.Point2D;
 import javafx.geometry.Pos;
 import javafx.scene.Group;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.Node;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.ScrollPane;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.StackPane;
 import javafx.scene.Cursor;
-import javafx.scene.SnapshotParameters;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
-import javafx.scene.image.WritableImage;
+import javafx.scene.transform.NonInvertibleTransformException;
 import javafx.scene.transform.Scale;
 import javafx.scene.transform.Translate;
 import javafx.stage.FileChooser;
-import javax.imageio.ImageIO;
 
 public class FXMLDocumentController implements Initializable {
 
@@ -52,8 +76,10 @@ public class FXMLDocumentController implements Initializable {
     private ScrollPane viewer;
     private Group zoomGroup;          
     private Pane layers;             
-    private ImageView baseView;
-    private Canvas paintLayer;
+    private ImageView baseView;       // preview de la imagen
+    private TiledImageLayer tileLayer; // teselas a resolución completa
+    private PaintLayer paintLayer;    // teselas de pintura, solo donde se pintó
+    private final List<ViewportAware> viewportAware = new ArrayList<>();
 
     // Transformaciones para pan & zoom consistentes
     private final Translate pan = new Translate(0, 0);
@@ -61,42 +87,166 @@ public class FXMLDocumentController implements Initializable {
 
     // Overlay de subir
     private HBox uploadOverlay;
+    private UploadViewController uploadController;
+
+    // Carga y exportación en curso
+    private File sourceFile;    // la imagen abierta
+    private ProjectFile project;    // del que salen las teselas sin mostrar
+    private ImageLoadTask loading;
+    private ExportTask exporting;
 
-    // Estado drag
-    private double dragStartX, dragStartY, startTX, startTY;
+    // Pan/zoom animados, una vez por pulso
+    private ViewerMotion motion;
+    private double lastDragX, lastDragY;
+    private boolean refreshQueued = false;
 
     private CropTool cropTool;
+    private Orienter orienter;     // giro/espejo de la vista -> píxeles
+
+    // Tiempos de cuadro y de herramientas
+    private final FrameMonitor frameMonitor = new FrameMonitor();
+    private PerfOverlay perfOverlay;
+
+    // Deshacer/rehacer de todas las herramientas
+    private final History history = new History();
 
     @Override
     public void initialize(URL url, ResourceBundle rb) {
         setupViewerIfNeeded();
         loadUploadOverlay();
 
-        cropTool = new com.vmd.tools.CropTool(layers, paintLayer, baseView, pan, zoom);
+        cropTool = new com.vmd.tools.CropTool(layers, paintLayer, baseView, tileLayer, pan, zoom, history);
+        orienter = new Orienter(baseView, tileLayer, paintLayer, layers, history);
+        if (FrameMonitor.requestedAtStartup()) {
+            frameMonitor.start();
+        }
     }
 
     public void showImageInMainContainer(File file) {
+        open(file, null);
+    }
+
+    // onLoaded corre en el hilo de la UI cuando la imagen terminó de cargar
+    private void open(File file, Runnable onLoaded) {
         setupViewerIfNeeded();
 
-        Image img = new Image(file.toURI().toString());
-        baseView.setImage(img);
+        // Si había otra carga en curso se descarta
+        if (loading != null) {
+            loading.cancel();
+        }
+        ImageLoadTask task = new ImageLoadTask(file);
+        loading = task;
+        sourceFile = file;
+
+        // Cada versión del preview (miniatura, parcial, completo) reemplaza a la anterior
+        final boolean[] sized = {false};
+        task.valueProperty().addListener((o, old, img) -> {
+            if (img == null || task != loading) {
+                return;
+            }
+            if (!sized[0]) {
+                sized[0] = true;
+                prepareLayers(task.getSource().getWidth(), task.getSource().getHeight());
+            }
+            baseView.setImage(img);
+        });
+
+        task.setOnSucceeded(e -> {
+            loading = null;
+            tileLayer.setSource(task.getSource());
+            baseView.setImage(task.getValue());
+            refreshTiles();
+            if (uploadController != null) {
+                uploadController.hideProgress();
+            }
+            if (uploadOverlay != null) {
+                uploadOverlay.setVisible(false);
+            }
+            if (onLoaded != null) {
+                onLoaded.run();
+            }
+        });
+
+        task.setOnFailed(e -> {
+            loading = null;
+            if (uploadController != null) {
+                uploadController.hideProgress();
+            }
+            Logger.getLogger(FXMLDocumentController.class.getName()).log(Level.SEVERE, null, task.getException());
+
+            Alert err = new Alert(AlertType.ERROR);
+            err.setTitle("Error al abrir");
+            err.setHeaderText("No se pudo abrir la imagen");
+            err.setContentText(String.valueOf(task.getException().getMessage()));
+            err.initOwner(mainContainer.getScene().getWindow());
+            err.showAndWait();
+        });
+
+        if (uploadController != null) {
+            uploadController.showProgress(task);
+        }
+        if (uploadOverlay != null) {
+            uploadOverlay.setVisible(true);
+            uploadOverlay.toFront();
+        }
+
+        Thread t = new Thread(task, "image-loader");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void prepareLayers(int w, int h) {
+        baseView.setViewport(null);
+        baseView.setFitWidth(w);
+        baseView.setFitHeight(h);
 
-        paintLayer.setWidth(img.getWidth());
-        paintLayer.setHeight(img.getHeight());
-        GraphicsContext gc = paintLayer.getGraphicsContext2D();
-        gc.clearRect(0, 0, paintLayer.getWidth(), paintLayer.getHeight());
+        paintLayer.clear();
+        paintLayer.setSize(w, h);
 
         layers.setMinSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
         layers.setMaxSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
-        layers.setPrefSize(img.getWidth(), img.getHeight());
+        layers.setPrefSize(w, h);
 
+        motion.stop();
         zoom.setX(1);
         zoom.setY(1);
         pan.setX(0);
         pan.setY(0);
+    }
 
-        if (uploadOverlay != null) {
-            uploadOverlay.setVisible(false);
+    // Área visible del visor en coordenadas de layers, sacada de pan/zoom
+    private Bounds visibleRegion() {
+        Bounds inScene = viewer.localToScene(viewer.getLayoutBounds());
+        return layers.sceneToLocal(inScene);
+    }
+
+    // Cada capa dibuja solo lo visible, al nivel de detalle de la escala
+    private void refreshTiles() {
+        if (viewer.getScene() == null) {
+            return;
+        }
+        Bounds visible = visibleRegion();
+        for (ViewportAware v : viewportAware) {
+            v.setViewport(visible, zoom.getX());
+        }
+    }
+
+    // pan.x, pan.y y zoom cambian juntos: un solo refresco por tanda
+    private void scheduleRefresh() {
+        if (refreshQueued) {
+            return;
+        }
+        refreshQueued = true;
+        Platform.runLater(() -> {
+            refreshQueued = false;
+            refreshTiles();
+        });
+    }
+
+    private void addViewportAware(ViewportAware v) {
+        viewportAware.add(v);
+        if (viewer.getScene() != null) {
+            v.setViewport(visibleRegion(), zoom.getX());
         }
     }
     
@@ -110,10 +260,22 @@ public class FXMLDocumentController implements Initializable {
         baseView.setPreserveRatio(true);
         baseView.setSmooth(true);
 
-        paintLayer = new Canvas(1, 1);
+        tileLayer = new TiledImageLayer();
+        // rotar/voltear se aplican igual a preview y teselas; los filtros
+        // los aplica la capa sobre los píxeles
+        tileLayer.rotateProperty().bind(baseView.rotateProperty());
+        tileLayer.scaleXProperty().bind(baseView.scaleXProperty());
+        tileLayer.scaleYProperty().bind(baseView.scaleYProperty());
+        tileLayer.setPreview(baseView);
+        tileLayer.prefWidthProperty().bind(baseView.fitWidthProperty());
+        tileLayer.prefHeightProperty().bind(baseView.fitHeightProperty());
+
+        paintLayer = new PaintLayer();
+        viewportAware.add(tileLayer);
+        viewportAware.add(paintLayer);
 
         layers = new Pane();
-        layers.getChildren().addAll(baseView, paintLayer);
+        layers.getChildren().addAll(baseView, tileLayer, paintLayer);
         layers.setPickOnBounds(true); 
   
         zoomGroup = new Group(layers);
@@ -128,49 +290,55 @@ public class FXMLDocumentController implements Initializable {
 
         mainContainer.getChildren().setAll(viewer);
 
+        pan.xProperty().addListener((o, a, b) -> scheduleRefresh());
+        pan.yProperty().addListener((o, a, b) -> scheduleRefresh());
+        zoom.xProperty().addListener((o, a, b) -> scheduleRefresh());
+        viewer.widthProperty().addListener((o, a, b) -> scheduleRefresh());
+        viewer.heightProperty().addListener((o, a, b) -> scheduleRefresh());
+        viewer.hvalueProperty().addListener((o, a, b) -> scheduleRefresh());
+        viewer.vvalueProperty().addListener((o, a, b) -> scheduleRefresh());
+        baseView.fitWidthProperty().addListener((o, a, b) -> scheduleRefresh());
+        baseView.fitHeightProperty().addListener((o, a, b) -> scheduleRefresh());
+
         
+        motion = new ViewerMotion(pan, zoom, layers);
+
+        // los eventos solo acumulan; el movimiento se aplica una vez por pulso
         layers.setOnMousePressed(e -> {
-            dragStartX = e.getSceneX();
-            dragStartY = e.getSceneY();
-            startTX = pan.getX();
-            startTY = pan.getY();
+            lastDragX = e.getSceneX();
+            lastDragY = e.getSceneY();
+            motion.beginDrag();
             layers.setCursor(Cursor.MOVE);
         });
         layers.setOnMouseDragged(e -> {
-            double dx = e.getSceneX() - dragStartX;
-            double dy = e.getSceneY() - dragStartY;
-            pan.setX(startTX + dx);
-            pan.setY(startTY + dy);
+            motion.panBy(e.getSceneX() - lastDragX, e.getSceneY() - lastDragY);
+            lastDragX = e.getSceneX();
+            lastDragY = e.getSceneY();
+        });
+        layers.setOnMouseReleased(e -> {
+            motion.endDrag();
+            layers.setCursor(Cursor.DEFAULT);
         });
-        layers.setOnMouseReleased(e -> layers.setCursor(Cursor.DEFAULT));
 
-       
+        // Rueda: zoom proporcional al delta (un paso de rueda = 10 %).
+        // Trackpad: dos dedos desplazan y el pellizco (ZoomEvent) hace zoom.
         zoomGroup.setOnScroll(e -> {
-            double factor = (e.getDeltaY() > 0) ? 1.1 : 0.9;
-            double newScale = clamp(zoom.getX() * factor, 0.05, 20);
-
-          
-            Point2D pivotInLayers = layers.sceneToLocal(e.getSceneX(), e.getSceneY());
-
-           
-            Point2D before = layers.localToScene(pivotInLayers);
-
-            
-            zoom.setX(newScale);
-            zoom.setY(newScale);
-
-            
-            Point2D after = layers.localToScene(pivotInLayers);
-
-            pan.setX(pan.getX() + (before.getX() - after.getX()));
-            pan.setY(pan.getY() + (before.getY() - after.getY()));
-
+            if (e.getDeltaX() == 0 && e.getDeltaY() == 0) {
+                return;
+            }
+            boolean trackpad = e.getTouchCount() > 0 || e.isInertia() || e.getDeltaX() != 0;
+            if (trackpad && !e.isControlDown()) {
+                motion.panBy(e.getDeltaX(), e.getDeltaY());
+            } else {
+                double notch = e.getMultiplierY() > 0 ? e.getMultiplierY() : 40;
+                motion.zoomBy(Math.pow(1.1, e.getDeltaY() / notch), e.getSceneX(), e.getSceneY());
+            }
+            e.consume();
+        });
+        zoomGroup.setOnZoom(e -> {
+            motion.zoomBy(e.getZoomFactor(), e.getSceneX(), e.getSceneY());
             e.consume();
         });
-    }
-
-    private static double clamp(double v, double min, double max) {
-        return (v < min) ? min : (v > max ? max : v);
     }
 
     private void loadUploadOverlay() {
@@ -181,6 +349,7 @@ public class FXMLDocumentController implements Initializable {
             child.setParentController(this);
 
             this.uploadOverlay = upload;
+            this.uploadController = child;
 
             upload.setMaxWidth(Region.USE_PREF_SIZE);
             upload.setMaxHeight(Region.USE_PREF_SIZE);
@@ -197,6 +366,10 @@ public class FXMLDocumentController implements Initializable {
 
     @FXML
     public void exportImage() {
+        if (tileLayer.getSource() == null || exporting != null) {
+            return;
+        }
+
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Exportar Imagen");
         fileChooser.getExtensionFilters().addAll(
@@ -205,40 +378,268 @@ public class FXMLDocumentController implements Initializable {
         );
 
         File file = fileChooser.showSaveDialog(viewer.getScene().getWindow());
-        if (file != null) {
-            try {
-    
-                WritableImage snapshot = layers.snapshot(new SnapshotParameters(), null);
+        if (file == null) {
+            return;
+        }
 
-    
-                String ext = getFileExtension(file.getName());
-                if (ext == null || ext.isEmpty()) {
-                    file = new File(file.getAbsolutePath() + ".png");
-                    ext = "png";
+        String ext = getFileExtension(file.getName());
+        if (ext == null || ext.isEmpty()) {
+            file = new File(file.getAbsolutePath() + ".png");
+            ext = "png";
+        }
+
+        ExportTask task;
+        try {
+            task = new ExportTask(tileLayer.getSource(), baseView, layers,
+                    Arrays.asList(baseView, tileLayer), this::hasOverlayIn, tileLayer.getFilter(), file, ext);
+        } catch (NonInvertibleTransformException ex) {
+            Logger.getLogger(FXMLDocumentController.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+        exporting = task;
+
+        // Progreso + cancelar; el editor queda bloqueado mientras dure
+        ProgressBar bar = new ProgressBar();
+        bar.setPrefWidth(240);
+        bar.progressProperty().bind(task.progressProperty());
+        Label msg = new Label();
+        msg.setStyle("-fx-text-fill: white;");
+        msg.textProperty().bind(task.messageProperty());
+        Button cancel = new Button("Cancelar");
+        cancel.setOnAction(e -> task.cancel());
+        HBox progressBox = new HBox(8, msg, bar, cancel);
+        progressBox.setAlignment(Pos.CENTER);
+        progressBox.setPadding(new Insets(8));
+        progressBox.setStyle("-fx-background-color: rgba(30,30,30,0.85); -fx-background-radius: 10;");
+        progressBox.setMaxSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        mainContainer.getChildren().add(progressBox);
+        StackPane.setAlignment(progressBox, Pos.BOTTOM_CENTER);
+        viewer.setDisable(true);
+        // la exportación captura todas las capas, no solo lo visible
+        paintLayer.setCulling(false);
+        if (stickerTool != null) {
+            stickerTool.setCulling(false);
+        }
+        if (textTool != null) {
+            textTool.setBatched(false);
+        }
+
+        Runnable done = () -> {
+            exporting = null;
+            paintLayer.setCulling(true);
+            if (stickerTool != null) {
+                stickerTool.setCulling(true);
+            }
+            if (textTool != null) {
+                textTool.setBatched(true);
+            }
+            mainContainer.getChildren().remove(progressBox);
+            viewer.setDisable(false);
+        };
+
+        task.setOnSucceeded(e -> {
+            done.run();
+            File out = task.getValue();
+
+            Alert ok = new Alert(AlertType.INFORMATION);
+            ok.setTitle("Exportación completada");
+            ok.setHeaderText(null);
+            ok.setContentText("Imagen exportada:\n" + out.getAbsolutePath());
+            ok.initOwner(viewer.getScene().getWindow());
+            ok.showAndWait();
+
+            if (Desktop.isDesktopSupported()) {
+                try {
+                    Desktop.getDesktop().open(out);
+                } catch (IOException ex) {
+                    Logger.getLogger(FXMLDocumentController.class.getName()).log(Level.WARNING, null, ex);
                 }
+            }
+        });
 
-                ImageIO.write(SwingFXUtils.fromFXImage(snapshot, null), ext, file);
+        task.setOnCancelled(e -> done.run());
 
-                Alert ok = new Alert(AlertType.INFORMATION);
-                ok.setTitle("Exportación completada");
-                ok.setHeaderText(null);
-                ok.setContentText("Imagen exportada:\n" + file.getAbsolutePath());
-                ok.initOwner(viewer.getScene().getWindow());
-                ok.showAndWait();
+        task.setOnFailed(e -> {
+            done.run();
+            Alert err = new Alert(AlertType.ERROR);
+            err.setTitle("Error al exportar");
+            err.setHeaderText("No se pudo exportar la imagen");
+            err.setContentText(String.valueOf(task.getException().getMessage()));
+            err.initOwner(viewer.getScene().getWindow());
+            err.showAndWait();
+        });
 
-                if (Desktop.isDesktopSupported()) {
-                    Desktop.getDesktop().open(file);
-                }
+        Thread t = new Thread(task, "image-export");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * La edición actual como receta, para volver a aplicarla (a otro
+     * tamaño o a otras imágenes) con el proceso por lotes.
+     */
+    @FXML
+    public void saveRecipe() {
+        if (tileLayer.getSource() == null) {
+            return;
+        }
+        FileChooser fc = new FileChooser();
+        fc.setTitle("Guardar receta");
+        fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("Receta (*.txt)", "*.txt"));
+        File file = fc.showSaveDialog(viewer.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        try (Writer w = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            if (sourceFile != null) {
+                w.write("# " + sourceFile.getAbsolutePath() + "\n");
+            }
+            currentRecipe().write(w);
+        } catch (IOException ex) {
+            Logger.getLogger(FXMLDocumentController.class.getName()).log(Level.WARNING, null, ex);
+            showError("Error al guardar", "No se pudo guardar la receta", ex);
+        }
+    }
+
+    @FXML
+    public void openProject() {
+        FileChooser fc = new FileChooser();
+        fc.setTitle("Abrir proyecto");
+        fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("Proyecto (*.vmdp)", "*.vmdp"));
+        File file = fc.showOpenDialog(mainContainer.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        ProjectFile opened;
+        try {
+            opened = ProjectFile.open(file);
+            if (opened.getTileSize() != 0 && opened.getTileSize() != PaintLayer.tileSize()) {
+                opened.close();
+                throw new IOException("Teselas de " + opened.getTileSize() + " px, se esperaban "
+                        + PaintLayer.tileSize());
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(FXMLDocumentController.class.getName()).log(Level.WARNING, null, ex);
+            showError("Error al abrir", "No se pudo abrir el proyecto", ex);
+            return;
+        }
+        resetAll();
+        project = opened;
+        open(opened.getSource(), () -> restore(opened));
+    }
 
-            } catch (IOException e) {
-                Alert err = new Alert(AlertType.ERROR);
-                err.setTitle("Error al exportar");
-                err.setHeaderText("No se pudo exportar la imagen");
-                err.setContentText(e.getMessage());
-                err.initOwner(viewer.getScene().getWindow());
-                err.showAndWait();
+    /**
+     * Guarda imagen de origen, receta, pintura, stickers y textos. Un giro
+     * que la vista muestra sin aplicar se aplica antes.
+     */
+    @FXML
+    public void saveProject() {
+        if (tileLayer.getSource() == null || sourceFile == null) {
+            return;
+        }
+        FileChooser fc = new FileChooser();
+        fc.setTitle("Guardar proyecto");
+        fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("Proyecto (*.vmdp)", "*.vmdp"));
+        File file = fc.showSaveDialog(viewer.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        if (!file.getName().contains(".")) {
+            file = new File(file.getAbsolutePath() + ".vmdp");
+        }
+        orienter.apply();
+        List<Step> edit = new ArrayList<>();
+        List<Step> objects = new ArrayList<>();
+        for (Step s : currentRecipe().getSteps()) {
+            if (s instanceof Steps.Sticker || s instanceof Steps.Caption) {
+                objects.add(s);
+            } else {
+                edit.add(s);
             }
         }
+        try {
+            // las teselas quedan en memoria; el proyecto abierto se cierra
+            // por si se guarda encima
+            Map<Long, byte[]> tiles = paintLayer.packedTiles();
+            closeProject();
+            ProjectFile.save(file, sourceFile, new Recipe(edit), new Recipe(objects),
+                    PaintLayer.tileSize(), tiles);
+        } catch (IOException ex) {
+            Logger.getLogger(FXMLDocumentController.class.getName()).log(Level.WARNING, null, ex);
+            showError("Error al guardar", "No se pudo guardar el proyecto", ex);
+        }
+    }
+
+    // Rehace la edición sobre la imagen recién cargada; no queda en el historial
+    private void restore(ProjectFile project) {
+        List<Stroke> strokes = new ArrayList<>();
+        for (Step s : project.getEdit().getSteps()) {
+            if (s instanceof Steps.Orient) {
+                orienter.apply(((Steps.Orient) s).op);
+            } else if (s instanceof Steps.Adjust) {
+                colorTool().setParams(((Steps.Adjust) s).getParams());
+            } else if (s instanceof Steps.Paint) {
+                strokes.addAll(((Steps.Paint) s).getStrokes());
+            } else if (s instanceof Steps.Crop) {
+                Steps.Crop c = (Steps.Crop) s;
+                cropTool.crop(c.x, c.y, c.w, c.h);
+            }
+        }
+        paintLayer.load(project.getTiles(), strokes);
+
+        List<Steps.Sticker> stickers = new ArrayList<>();
+        List<Steps.Caption> captions = new ArrayList<>();
+        for (Step s : project.getObjects().getSteps()) {
+            if (s instanceof Steps.Sticker) {
+                stickers.add((Steps.Sticker) s);
+            } else if (s instanceof Steps.Caption) {
+                captions.add((Steps.Caption) s);
+            }
+        }
+        if (!stickers.isEmpty()) {
+            stickerTool().load(stickers);
+        }
+        if (!captions.isEmpty()) {
+            textTool().load(captions);
+        }
+        history.clear();
+        scheduleRefresh();
+    }
+
+    private void showError(String title, String header, Exception ex) {
+        Alert err = new Alert(AlertType.ERROR);
+        err.setTitle(title);
+        err.setHeaderText(header);
+        err.setContentText(String.valueOf(ex.getMessage()));
+        err.initOwner(mainContainer.getScene().getWindow());
+        err.showAndWait();
+    }
+
+    // Lo que se ve, en orden: orientación de la imagen, color (solo la
+    // base), pintura, recorte y encima stickers y textos. Un giro que la
+    // vista muestra pero todavía no se aplicó no entra.
+    private Recipe currentRecipe() {
+        List<Step> steps = new ArrayList<>();
+        steps.add(new Steps.Orient(OrientedTileSource.orientationOf(tileLayer.getSource())));
+        if (tileLayer.getFilter() instanceof ColorPipeline) {
+            steps.add(new Steps.Adjust(((ColorPipeline) tileLayer.getFilter()).getParams()));
+        }
+        steps.add(new Steps.Paint(paintLayer.getStrokes()));
+        int x = (int) Math.round(paintLayer.getViewX());
+        int y = (int) Math.round(paintLayer.getViewY());
+        int w = (int) Math.round(paintLayer.getSurfaceWidth());
+        int h = (int) Math.round(paintLayer.getSurfaceHeight());
+        if (x != 0 || y != 0 || w != (int) Math.round(paintLayer.getFullWidth())
+                || h != (int) Math.round(paintLayer.getFullHeight())) {
+            steps.add(new Steps.Crop(x, y, w, h));
+        }
+        if (stickerTool != null) {
+            steps.addAll(stickerTool.recipeSteps());
+        }
+        if (textTool != null) {
+            steps.addAll(textTool.recipeSteps());
+        }
+        return new Recipe(steps);
     }
 
     private String getFileExtension(String name) {
@@ -265,17 +666,57 @@ public class FXMLDocumentController implements Initializable {
         }
     }
 
+    // ¿Hay algo encima de la imagen (pintura, stickers, texto) en esta zona?
+    private boolean hasOverlayIn(Bounds b) {
+        if (paintLayer.intersects(b)) {
+            return true;
+        }
+        for (Node n : layers.getChildren()) {
+            if (n == baseView || n == tileLayer || n == paintLayer || !n.isVisible()) {
+                continue;
+            }
+            if (n.getBoundsInParent().intersects(b)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void closeProject() {
+        if (project == null) {
+            return;
+        }
+        try {
+            project.close();
+        } catch (IOException ex) {
+            Logger.getLogger(FXMLDocumentController.class.getName()).log(Level.WARNING, null, ex);
+        }
+        project = null;
+    }
+
     private void resetAll() {
+        motion.stop();
         pan.setX(0);
         pan.setY(0);
         zoom.setX(1);
         zoom.setY(1);
 
-        GraphicsContext gc = paintLayer.getGraphicsContext2D();
-        gc.clearRect(0, 0, paintLayer.getWidth(), paintLayer.getHeight());
+        paintLayer.clear();
+        closeProject();
+        history.clear();
+        if (stickerTool != null) {
+            stickerTool.clear();
+        }
+        if (textTool != null) {
+            textTool.clear();
+        }
+
+        baseView.setImage(null);
+        baseView.setViewport(null);
+        tileLayer.clear();
 
         layers.getChildren().clear();
-        layers.getChildren().addAll(baseView, paintLayer);
+        layers.getChildren().addAll(baseView, tileLayer, paintLayer);
 
         if (cropTool != null) {
             cropTool.reattachIfNeeded();
@@ -284,17 +725,40 @@ public class FXMLDocumentController implements Initializable {
         layers.setCursor(Cursor.DEFAULT);
     }
 
+    @FXML
+    private void undo() {
+        history.undo();
+    }
+
+    @FXML
+    private void redo() {
+        history.redo();
+    }
+
     @FXML
     public void enterCropMode() {
         cropTool.enterCropMode();
     }
 
+    @FXML
+    private void togglePerfOverlay() {
+        if (perfOverlay == null) {
+            perfOverlay = new PerfOverlay(frameMonitor);
+        }
+        perfOverlay.toggle(mainContainer);
+    }
+
+    @FXML
+    private void compactMemory() {
+        cropTool.compact();
+    }
+
     private RotateTool rotateToolbar;
 
     @FXML
     private void onBtnRotarClick() {
         if (rotateToolbar == null) {
-            rotateToolbar = new RotateTool(baseView, layers);
+            rotateToolbar = new RotateTool(baseView, layers, history, orienter);
         }
         rotateToolbar.toggle();
     }
@@ -304,7 +768,7 @@ public class FXMLDocumentController implements Initializable {
     @FXML
     private void onBtnFlipClick() {
         if (flipToolbar == null) {
-            flipToolbar = new FlipTool(baseView, layers);
+            flipToolbar = new FlipTool(baseView, layers, history, orienter);
         }
         flipToolbar.toggle();
     }
@@ -313,10 +777,14 @@ public class FXMLDocumentController implements Initializable {
 
     @FXML
     private void onBtnFiltrosClick() {
+        colorTool().toggle();
+    }
+
+    private ColorAdjustTool colorTool() {
         if (colorTool == null) {
-            colorTool = new ColorAdjustTool(baseView, layers);
+            colorTool = new ColorAdjustTool(tileLayer, layers, history);
         }
-        colorTool.toggle();
+        return colorTool;
     }
 
     private void disablePanZoom() {
@@ -336,7 +804,7 @@ public class FXMLDocumentController implements Initializable {
             eraseTool.hide();
         }
         if (brushTool == null) {
-            brushTool = new com.vmd.tools.BrushTool(paintLayer, layers, this::disablePanZoom, this::enablePanZoom);
+            brushTool = new com.vmd.tools.BrushTool(paintLayer, history, layers, this::disablePanZoom, this::enablePanZoom);
         }
         brushTool.toggle();
     }
@@ -347,7 +815,7 @@ public class FXMLDocumentController implements Initializable {
             brushTool.hide();
         }
         if (eraseTool == null) {
-            eraseTool = new com.vmd.tools.EraseTool(paintLayer, layers, this::disablePanZoom, this::enablePanZoom,
+            eraseTool = new com.vmd.tools.EraseTool(paintLayer, history, layers, this::disablePanZoom, this::enablePanZoom,
                     "/com/vmd/resources/eraser.png"); // ruta en resources
         }
         eraseTool.toggle();
@@ -370,10 +838,15 @@ public class FXMLDocumentController implements Initializable {
             flipToolbar.hide();
         }
 
+        stickerTool().toggle();
+    }
+
+    private StickerTool stickerTool() {
         if (stickerTool == null) {
-            stickerTool = new com.vmd.tools.StickerTool(layers, this::disablePanZoom, this::enablePanZoom);
+            stickerTool = new com.vmd.tools.StickerTool(layers, history, this::disablePanZoom, this::enablePanZoom);
+            addViewportAware(stickerTool);
         }
-        stickerTool.toggle();
+        return stickerTool;
     }
 
     private TextTool textTool;
@@ -396,10 +869,15 @@ public class FXMLDocumentController implements Initializable {
             stickerTool.hide();
         }
 
+        textTool().toggle();
+    }
+
+    private TextTool textTool() {
         if (textTool == null) {
-            textTool = new com.vmd.tools.TextTool(layers, baseView, this::disablePanZoom, this::enablePanZoom);
+            textTool = new com.vmd.tools.TextTool(layers, baseView, history, this::disablePanZoom, this::enablePanZoom);
+            addViewportAware(textTool);
         }
-        textTool.toggle();
+        return textTool;
     }
 
 }
@@ -0,0 +1,227 @@
+package com.vmd.batch;
+
+import com.vmd.edit.Bitmap;
+import com.vmd.edit.Recipe;
+import com.vmd.edit.RegionSource;
+import com.vmd.io.BandedImage;
+import com.vmd.pixels.Pixels;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Pasa una lista de imágenes por una {@link Recipe} en tres etapas
+ * encadenadas: decodificar, procesar y codificar, cada una con su pool.
+ * Mientras una imagen se codifica la siguiente ya se procesa y otra se
+ * decodifica.
+ *
+ * Un semáforo limita las imágenes en vuelo a dos por hilo de proceso, así
+ * la memoria no depende del tamaño del lote. Con submuestreo, el lector
+ * decodifica ya reducido y nunca está la imagen completa en memoria.
+ */
+public final class BatchRunner {
+
+    /**
+     * Avisa cada imagen terminada; {@code error} es null si salió bien.
+     * Se llama desde los hilos del lote.
+     */
+    public interface Listener {
+
+        void done(File in, File out, Throwable error);
+    }
+
+    private final Recipe recipe;
+    private final String format;     // null = el de cada entrada
+    private final int threads;
+    private final int subsampling;   // 1 = tamaño original
+
+    public BatchRunner(Recipe recipe, String format, int threads, int subsampling) {
+        this.recipe = recipe;
+        this.format = format;
+        this.threads = Math.max(1, threads);
+        this.subsampling = Math.max(1, subsampling);
+    }
+
+    /**
+     * Procesa todo y espera a que termine. Devuelve cuántas fallaron.
+     *
+     * @throws IOException si dos entradas irían a la misma salida; en ese
+     * caso no se procesa ninguna
+     */
+    public int run(List<File> inputs, File outDir, Listener listener) throws IOException, InterruptedException {
+        Map<File, String> names = outputNames(inputs);
+        ExecutorService decoders = pool("batch-decode", Math.max(1, threads / 2));
+        ExecutorService workers = pool("batch-process", threads);
+        ExecutorService encoders = pool("batch-encode", Math.max(1, threads / 2));
+        Semaphore inFlight = new Semaphore(threads * 2);
+        AtomicInteger failed = new AtomicInteger();
+        List<CompletableFuture<?>> all = new ArrayList<>(inputs.size());
+        try {
+            for (File in : inputs) {
+                inFlight.acquire();
+                File out = new File(outDir, names.get(in));
+                AtomicBoolean created = new AtomicBoolean();
+                all.add(CompletableFuture
+                        .supplyAsync(() -> decode(in), decoders)
+                        .thenApplyAsync(this::process, workers)
+                        .thenAcceptAsync(b -> encode(b, out, created), encoders)
+                        .whenComplete((v, ex) -> {
+                            inFlight.release();
+                            Throwable cause = ex == null ? null : (ex.getCause() != null ? ex.getCause() : ex);
+                            if (cause != null) {
+                                failed.incrementAndGet();
+                                // solo lo que escribió este trabajo
+                                if (created.get()) {
+                                    out.delete();
+                                }
+                            }
+                            listener.done(in, out, cause);
+                        }));
+            }
+            CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0])).exceptionally(ex -> null).join();
+        } finally {
+            decoders.shutdownNow();
+            workers.shutdownNow();
+            encoders.shutdownNow();
+        }
+        return failed.get();
+    }
+
+    // Nombre de salida de cada entrada: el mismo nombre con la extensión
+    // del formato; si dos chocan (a.png y a.jpg, o a.png y a.gif) se les
+    // agrega la extensión original: a-png.png, a-gif.png
+    private Map<File, String> outputNames(List<File> inputs) throws IOException {
+        Map<String, Integer> count = new HashMap<>();
+        for (File in : inputs) {
+            count.merge(key(stem(in) + "." + formatFor(in)), 1, Integer::sum);
+        }
+        Map<File, String> names = new HashMap<>();
+        Map<String, File> taken = new HashMap<>();
+        for (File in : inputs) {
+            String name = stem(in) + "." + formatFor(in);
+            if (count.get(key(name)) > 1) {
+                name = stem(in) + "-" + extension(in) + "." + formatFor(in);
+            }
+            File other = taken.put(key(name), in);
+            if (other != null) {
+                throw new IOException(other.getName() + " y " + in.getName() + " irían a " + name);
+            }
+            names.put(in, name);
+        }
+        return names;
+    }
+
+    // Sin distinguir mayúsculas, por los sistemas de archivos que no lo hacen
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static String stem(File in) {
+        String name = in.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static String extension(File in) {
+        String name = in.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot + 1) : "";
+    }
+
+    private String formatFor(File in) {
+        if (format != null) {
+            return format;
+        }
+        String n = in.getName().toLowerCase();
+        return n.endsWith(".jpg") || n.endsWith(".jpeg") ? "jpg" : "png";
+    }
+
+    // Con submuestreo el lector salta filas y columnas al decodificar; la
+    // fuente informa el tamaño original para que la receta cuente igual
+    private RegionSource decode(File in) {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> it = iis == null ? null : ImageIO.getImageReaders(iis);
+            if (it == null || !it.hasNext()) {
+                throw new IOException("Formato no soportado: " + in.getName());
+            }
+            ImageReader reader = it.next();
+            try {
+                reader.setInput(iis, true, true);
+                int w = reader.getWidth(0);
+                int h = reader.getHeight(0);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage img = reader.read(0, param);
+                return RegionSource.of(Bitmap.of(img), w, h, subsampling);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private Bitmap process(RegionSource src) {
+        try {
+            int[] d = recipe.size(src.getWidth(), src.getHeight(), subsampling);
+            return recipe.render(src, 0, 0, d[0], d[1], subsampling, null);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // Igual que la exportación del editor: JPEG sin alfa, sobre blanco
+    private void encode(Bitmap b, File out, AtomicBoolean created) {
+        String fmt = out.getName().substring(out.getName().lastIndexOf('.') + 1);
+        boolean alpha = !"jpg".equals(fmt);
+        if (!alpha) {
+            for (int i = 0; i < b.argb.length; i++) {
+                b.argb[i] = Pixels.over(b.argb[i], 0xffffffff);
+            }
+        }
+        Iterator<ImageWriter> it = ImageIO.getImageWritersByFormatName(fmt);
+        if (!it.hasNext()) {
+            throw new UncheckedIOException(new IOException("Formato no soportado: " + fmt));
+        }
+        ImageWriter writer = it.next();
+        // el stream no trunca un archivo existente
+        out.delete();
+        created.set(true);
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            writer.write(new BandedImage(b.width, b.height, b.height, alpha, (y, h) -> b.argb));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static ExecutorService pool(String name, int n) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
@@ -9,9 +9,12 @@ import com.vmd.FXMLDocumentController;
 import java.io.File;
 import java.net.URL;
 import java.util.ResourceBundle;
+import javafx.concurrent.Worker;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.input.MouseEvent;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
@@ -31,6 +34,11 @@ public class UploadViewController implements Initializable {
         // TODO
     }
 
+    @FXML
+    private ProgressBar progress;
+    @FXML
+    private Label status;
+
     private FXMLDocumentController parentController;
 
     public void setParentController(FXMLDocumentController parentController) {
@@ -44,4 +52,26 @@ public class UploadViewController implements Initializable {
         }
     }
 
+    /**
+     * Muestra el progreso de una carga en curso.
+     */
+    public void showProgress(Worker<?> worker) {
+        progress.progressProperty().bind(worker.progressProperty());
+        status.textProperty().bind(worker.messageProperty());
+        setProgressVisible(true);
+    }
+
+    public void hideProgress() {
+        progress.progressProperty().unbind();
+        status.textProperty().unbind();
+        setProgressVisible(false);
+    }
+
+    private void setProgressVisible(boolean on) {
+        progress.setVisible(on);
+        progress.setManaged(on);
+        status.setVisible(on);
+        status.setManaged(on);
+    }
+
 }
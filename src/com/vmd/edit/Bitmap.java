@@ -0,0 +1,60 @@
+package com.vmd.edit;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Imagen en memoria para las recetas: ARGB no premultiplicado, fila por
+ * fila. No depende de JavaFX.
+ */
+public final class Bitmap {
+
+    private static final int[] ARGB_MASKS = {0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000};
+
+    public final int[] argb;
+    public final int width, height;
+
+    public Bitmap(int[] argb, int width, int height) {
+        this.argb = argb;
+        this.width = width;
+        this.height = height;
+    }
+
+    public static Bitmap of(BufferedImage img) {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        return new Bitmap(img.getRGB(0, 0, w, h, null, 0, w), w, h);
+    }
+
+    public Bitmap copy() {
+        return new Bitmap(argb.clone(), width, height);
+    }
+
+    /**
+     * Copia de la región (x, y, w, h); lo que cae fuera queda transparente.
+     */
+    public Bitmap region(int x, int y, int w, int h) {
+        int[] out = new int[w * h];
+        int x0 = Math.max(0, x), x1 = Math.min(width, x + w);
+        if (x1 > x0) {
+            for (int r = Math.max(0, -y); r < h && y + r < height; r++) {
+                System.arraycopy(argb, (y + r) * width + x0, out, r * w + x0 - x, x1 - x0);
+            }
+        }
+        return new Bitmap(out, w, h);
+    }
+
+    /**
+     * Un BufferedImage que comparte el arreglo: dibujar en él (Java2D)
+     * cambia este Bitmap.
+     */
+    public BufferedImage asBufferedImage() {
+        DataBufferInt buf = new DataBufferInt(argb, argb.length);
+        WritableRaster r = Raster.createPackedRaster(buf, width, height, width, ARGB_MASKS, null);
+        DirectColorModel cm = new DirectColorModel(32, ARGB_MASKS[0], ARGB_MASKS[1], ARGB_MASKS[2], ARGB_MASKS[3]);
+        return new BufferedImage(cm, r, false, null);
+    }
+}
@@ -0,0 +1,36 @@
+package com.vmd.edit;
+
+/**
+ * Un trozo de una etapa de la receta: los píxeles y dónde caen dentro de
+ * la imagen de esa etapa (ya escalada).
+ */
+public final class Piece {
+
+    public final Bitmap pixels;
+    public final int x, y;
+
+    public Piece(Bitmap pixels, int x, int y) {
+        this.pixels = pixels;
+        this.x = x;
+        this.y = y;
+    }
+
+    public int width() {
+        return pixels.width;
+    }
+
+    public int height() {
+        return pixels.height;
+    }
+
+    /**
+     * Este trozo recortado o completado (transparente) al rectángulo
+     * {x, y, w, h}; el mismo objeto si ya coincide.
+     */
+    Piece fit(int[] r) {
+        if (x == r[0] && y == r[1] && pixels.width == r[2] && pixels.height == r[3]) {
+            return this;
+        }
+        return new Piece(pixels.region(r[0] - x, r[1] - y, r[2], r[3]), r[0], r[1]);
+    }
+}
@@ -0,0 +1,370 @@
+package com.vmd.edit;
+
+import com.vmd.pixels.ColorPipeline;
+import com.vmd.pixels.Orientation;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Edición no destructiva: la lista ordenada de operaciones, sin píxeles.
+ * La misma receta sirve para el lote ({@link #apply}), para volver a
+ * exportar lo que se hizo en el editor a cualquier tamaño y para
+ * dibujar solo una región ({@link #render}).
+ *
+ * Se escribe como texto, una operación por línea (una línea que empieza
+ * con {@code #} es un comentario):
+ * <pre>
+ * crop 100 100 800 600
+ * rotate 90
+ * flip h
+ * color brightness=0.1 contrast=0.2 saturation=-0.3 hue=0 sepia=0
+ * stroke draw 8 #ffff0000 10,10 40,12.5 80,30
+ * stroke erase 20 35,12
+ * sticker logo.png 20 20 200
+ * text "Oferta" 40 80 48 #ffffffff
+ * </pre>
+ * Las coordenadas son de la imagen tal como llega a esa línea. Los
+ * trazos seguidos forman una sola capa de pintura. Un sticker es una URL
+ * o una ruta, relativa al archivo de la receta.
+ */
+public final class Recipe {
+
+    private final List<Step> steps;
+
+    public Recipe(List<Step> steps) {
+        List<Step> merged = new ArrayList<>();
+        for (Step s : steps) {
+            add(merged, s);
+        }
+        this.steps = Collections.unmodifiableList(merged);
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Tamaño {w, h} del resultado para una fuente de w × h, submuestreada.
+     */
+    public int[] size(int w, int h, int subsampling) throws IOException {
+        return dims(w, h, subsampling)[steps.size()];
+    }
+
+    /**
+     * Toda la receta sobre una imagen, a resolución completa.
+     */
+    public Bitmap apply(Bitmap in) throws IOException {
+        int[] d = size(in.width, in.height, 1);
+        return render(RegionSource.of(in), 0, 0, d[0], d[1], 1, null);
+    }
+
+    /**
+     * La región (x, y, w, h) del resultado, en píxeles del resultado
+     * submuestreado (uno de cada {@code subsampling}).
+     *
+     * De atrás hacia adelante se calcula qué parte de cada etapa hace
+     * falta; de la fuente se lee solo eso, ya reducido, y se pasa por los
+     * pasos. Ninguna etapa existe completa ni a resolución completa salvo
+     * que se la pida así. Con {@code cache} se guarda la salida de cada
+     * etapa y se retoma desde la última que ya estaba; el resultado es
+     * entonces una copia.
+     */
+    public Bitmap render(RegionSource src, int x, int y, int w, int h, int subsampling, StageCache cache)
+            throws IOException {
+        double scale = 1.0 / subsampling;
+        int n = steps.size();
+        int[][] dims = dims(src.getWidth(), src.getHeight(), subsampling);
+        int[][] rects = new int[n + 1][];
+        rects[n] = clip(new int[]{x, y, w, h}, dims[n]);
+        for (int i = n - 1; i >= 0; i--) {
+            rects[i] = clip(steps.get(i).source(rects[i + 1], dims[i][0], dims[i][1], scale), dims[i]);
+        }
+
+        Piece p = null;
+        int from = 0;
+        for (int i = n; cache != null && i > 0 && p == null; i--) {
+            p = cache.get(src, steps.subList(0, i), rects[i], subsampling);
+            from = i;
+        }
+        if (p == null) {
+            from = 0;
+            int[] r = rects[0];
+            int sx = r[0] * subsampling, sy = r[1] * subsampling;
+            Bitmap b = src.read(sx, sy, Math.min(r[2] * subsampling, src.getWidth() - sx),
+                    Math.min(r[3] * subsampling, src.getHeight() - sy), subsampling);
+            p = new Piece(b, r[0], r[1]).fit(r);
+        }
+        for (int i = from; i < n; i++) {
+            p = steps.get(i).apply(p, dims[i][0], dims[i][1], scale).fit(rects[i + 1]);
+            if (cache != null) {
+                cache.put(src, steps.subList(0, i + 1), rects[i + 1], subsampling, p);
+            }
+        }
+        return cache != null ? p.pixels.copy() : p.pixels;
+    }
+
+    // Tamaño de cada etapa: dims[0] es la fuente, dims[i + 1] la salida del paso i
+    private int[][] dims(int w, int h, int subsampling) throws IOException {
+        int[][] d = new int[steps.size() + 1][];
+        d[0] = new int[]{(w + subsampling - 1) / subsampling, (h + subsampling - 1) / subsampling};
+        for (int i = 0; i < steps.size(); i++) {
+            d[i + 1] = steps.get(i).size(d[i][0], d[i][1], 1.0 / subsampling);
+        }
+        return d;
+    }
+
+    private static int[] clip(int[] r, int[] dim) throws IOException {
+        int x0 = Math.max(0, r[0]), y0 = Math.max(0, r[1]);
+        int x1 = Math.min(dim[0], r[0] + r[2]), y1 = Math.min(dim[1], r[1] + r[3]);
+        if (x1 <= x0 || y1 <= y0) {
+            throw new IOException("La región pedida queda fuera de la imagen");
+        }
+        return new int[]{x0, y0, x1 - x0, y1 - y0};
+    }
+
+    public static Recipe read(File file) throws IOException {
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        return parse(lines, file.getAbsoluteFile().getParentFile(), file.getName());
+    }
+
+    /**
+     * Lee una receta guardada como texto; las rutas relativas son
+     * relativas a {@code base}.
+     */
+    public static Recipe parse(String text, File base) throws IOException {
+        return parse(Arrays.asList(text.split("\\R")), base, "receta");
+    }
+
+    private static Recipe parse(List<String> lines, File base, String name) throws IOException {
+        List<Step> steps = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            try {
+                List<String> t = tokens(lines.get(i));
+                if (!t.isEmpty()) {
+                    add(steps, parse(t, base));
+                }
+            } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+                throw new IOException(name + ", línea " + (i + 1) + ": " + lines.get(i).trim(), ex);
+            }
+        }
+        return new Recipe(steps);
+    }
+
+    public void write(Writer out) throws IOException {
+        out.write(toString());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Step s : steps) {
+            sb.append(s.line()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Recipe && ((Recipe) o).steps.equals(steps);
+    }
+
+    @Override
+    public int hashCode() {
+        return steps.hashCode();
+    }
+
+    // Giros y espejos seguidos se aplican de una vez; trazos seguidos van
+    // a la misma capa de pintura
+    private static void add(List<Step> steps, Step s) {
+        int last = steps.size() - 1;
+        Step prev = last >= 0 ? steps.get(last) : null;
+        if (s instanceof Steps.Orient && prev instanceof Steps.Orient) {
+            int op = Orientation.compose(((Steps.Orient) prev).op, ((Steps.Orient) s).op);
+            if (op == Orientation.IDENTITY) {
+                steps.remove(last);
+            } else {
+                steps.set(last, new Steps.Orient(op));
+            }
+            return;
+        }
+        if (s instanceof Steps.Paint && prev instanceof Steps.Paint) {
+            List<Stroke> all = new ArrayList<>(((Steps.Paint) prev).getStrokes());
+            all.addAll(((Steps.Paint) s).getStrokes());
+            steps.set(last, new Steps.Paint(all));
+            return;
+        }
+        if (s instanceof Steps.Orient && ((Steps.Orient) s).op == Orientation.IDENTITY
+                || s instanceof Steps.Paint && ((Steps.Paint) s).getStrokes().isEmpty()) {
+            return;
+        }
+        steps.add(s);
+    }
+
+    private static Step parse(List<String> t, File base) {
+        switch (t.get(0)) {
+            case "crop":
+                return new Steps.Crop(integer(t, 1), integer(t, 2), integer(t, 3), integer(t, 4));
+            case "rotate":
+                return new Steps.Orient(Orientation.forAngle(integer(t, 1)));
+            case "flip":
+                switch (t.get(1)) {
+                    case "h":
+                        return new Steps.Orient(Orientation.FLIP_H);
+                    case "v":
+                        return new Steps.Orient(Orientation.FLIP_V);
+                    default:
+                        throw new IllegalArgumentException("flip h o flip v");
+                }
+            case "color":
+                return new Steps.Adjust(colorParams(t));
+            case "stroke":
+                return new Steps.Paint(Collections.singletonList(stroke(t)));
+            case "sticker":
+                return new Steps.Sticker(url(t.get(1), base), real(t, 2), real(t, 3), real(t, 4));
+            case "text":
+                return new Steps.Caption(t.get(1), real(t, 2), real(t, 3), real(t, 4),
+                        t.size() > 5 ? color(t.get(5)) : 0xffffffff);
+            default:
+                throw new IllegalArgumentException("Operación desconocida: " + t.get(0));
+        }
+    }
+
+    // stroke draw ancho #color x,y ... | stroke erase ancho x,y ...
+    private static Stroke stroke(List<String> t) {
+        boolean erase;
+        switch (t.get(1)) {
+            case "draw":
+                erase = false;
+                break;
+            case "erase":
+                erase = true;
+                break;
+            default:
+                throw new IllegalArgumentException("stroke draw o stroke erase");
+        }
+        int first = erase ? 3 : 4;
+        if (t.size() <= first) {
+            throw new IllegalArgumentException("El trazo no tiene puntos");
+        }
+        double[] pts = new double[2 * (t.size() - first)];
+        for (int i = first; i < t.size(); i++) {
+            String p = t.get(i);
+            int comma = p.indexOf(',');
+            if (comma < 0) {
+                throw new IllegalArgumentException("Se esperaba x,y: " + p);
+            }
+            pts[2 * (i - first)] = Double.parseDouble(p.substring(0, comma));
+            pts[2 * (i - first) + 1] = Double.parseDouble(p.substring(comma + 1));
+        }
+        return new Stroke(erase, real(t, 2), erase ? 0 : color(t.get(3)), pts);
+    }
+
+    // URL tal cual; una ruta de archivo pasa a URL
+    private static String url(String s, File base) {
+        File f = new File(s);
+        if (!f.isAbsolute() && s.matches("[a-zA-Z][a-zA-Z0-9+.-]+:.*")) {
+            return s;
+        }
+        if (!f.isAbsolute()) {
+            f = new File(base, s);
+        }
+        return f.toURI().toString();
+    }
+
+    private static double[] colorParams(List<String> t) {
+        double[] p = new double[5];
+        for (String kv : t.subList(1, t.size())) {
+            int eq = kv.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Se esperaba clave=valor: " + kv);
+            }
+            double v = Double.parseDouble(kv.substring(eq + 1));
+            switch (kv.substring(0, eq)) {
+                case "brightness":
+                    p[ColorPipeline.BRIGHTNESS] = v;
+                    break;
+                case "contrast":
+                    p[ColorPipeline.CONTRAST] = v;
+                    break;
+                case "saturation":
+                    p[ColorPipeline.SATURATION] = v;
+                    break;
+                case "hue":
+                    p[ColorPipeline.HUE] = v;
+                    break;
+                case "sepia":
+                    p[ColorPipeline.SEPIA] = v;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Ajuste desconocido: " + kv);
+            }
+        }
+        return p;
+    }
+
+    private static int integer(List<String> t, int i) {
+        return Integer.parseInt(t.get(i));
+    }
+
+    private static double real(List<String> t, int i) {
+        return Double.parseDouble(t.get(i));
+    }
+
+    // #rrggbb o #aarrggbb
+    private static int color(String s) {
+        if (!s.startsWith("#") || (s.length() != 7 && s.length() != 9)) {
+            throw new IllegalArgumentException("Color: #rrggbb o #aarrggbb");
+        }
+        long v = Long.parseLong(s.substring(1), 16);
+        return (int) (s.length() == 7 ? 0xff000000L | v : v);
+    }
+
+    // Separa por espacios; "entre comillas" es un solo token (\" y \\ escapan)
+    private static List<String> tokens(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '\\' && i + 1 < line.length()) {
+                    cur.append(line.charAt(++i));
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    cur.append(c);
+                }
+            } else if (c == '#' && cur == null && out.isEmpty()) {
+                break;
+            } else if (Character.isWhitespace(c)) {
+                if (cur != null) {
+                    out.add(cur.toString());
+                    cur = null;
+                }
+            } else {
+                if (cur == null) {
+                    cur = new StringBuilder();
+                }
+                if (c == '"') {
+                    quoted = true;
+                } else {
+                    cur.append(c);
+                }
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Falta cerrar comillas");
+        }
+        if (cur != null) {
+            out.add(cur.toString());
+        }
+        return out;
+    }
+}
@@ -0,0 +1,69 @@
+package com.vmd.edit;
+
+import java.io.IOException;
+
+/**
+ * Imagen de entrada de una {@link Recipe}, leída por regiones y a menor
+ * resolución (como {@code TileSource}, pero sin JavaFX).
+ */
+public interface RegionSource {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * La región (x, y, w, h) en píxeles de la imagen, tomando uno de cada
+     * {@code subsampling}: el resultado mide ⌈w/sub⌉ × ⌈h/sub⌉.
+     */
+    Bitmap read(int x, int y, int w, int h, int subsampling) throws IOException;
+
+    /**
+     * Fuente sobre una imagen ya decodificada. Cada lectura es una copia.
+     */
+    static RegionSource of(Bitmap b) {
+        return of(b, b.width, b.height, 1);
+    }
+
+    /**
+     * Fuente sobre una imagen de {@code width × height} que se decodificó
+     * ya submuestreada (uno de cada {@code decoded} píxeles, empezando por
+     * el primero, como hace {@code ImageReadParam}). Solo admite lecturas
+     * con un submuestreo múltiplo de {@code decoded} y que empiecen en un
+     * píxel que se decodificó.
+     */
+    static RegionSource of(Bitmap b, int width, int height, int decoded) {
+        return new RegionSource() {
+            @Override
+            public int getWidth() {
+                return width;
+            }
+
+            @Override
+            public int getHeight() {
+                return height;
+            }
+
+            @Override
+            public Bitmap read(int x, int y, int w, int h, int sub) {
+                if (sub % decoded != 0 || x % decoded != 0 || y % decoded != 0) {
+                    throw new IllegalArgumentException("La imagen se decodificó a 1/" + decoded
+                            + ", no se puede leer a 1/" + sub + " desde " + x + "," + y);
+                }
+                int bx = x / decoded, by = y / decoded, step = sub / decoded;
+                int ow = (w + sub - 1) / sub, oh = (h + sub - 1) / sub;
+                if (step == 1) {
+                    return b.region(bx, by, ow, oh);
+                }
+                int[] out = new int[ow * oh];
+                for (int r = 0; r < oh; r++) {
+                    int s = (by + r * step) * b.width + bx;
+                    for (int c = 0; c < ow; c++) {
+                        out[r * ow + c] = b.argb[s + c * step];
+                    }
+                }
+                return new Bitmap(out, ow, oh);
+            }
+        };
+    }
+}
@@ -0,0 +1,91 @@
+package com.vmd.edit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Resultados intermedios de {@link Recipe#render}: el trozo que sale de
+ * cada etapa, por fuente, pasos aplicados, región y submuestreo. Si solo
+ * cambia el final de la receta (un texto, un sticker) se retoma desde la
+ * última etapa que sigue igual.
+ *
+ * Se descartan los menos usados cuando se pasa del límite de memoria.
+ */
+public final class StageCache {
+
+    private final long maxBytes;
+    private long bytes = 0;
+    private final LinkedHashMap<Key, Piece> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public StageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized Piece get(RegionSource src, List<Step> steps, int[] rect, int sub) {
+        return entries.get(new Key(src, steps, rect, sub));
+    }
+
+    synchronized void put(RegionSource src, List<Step> steps, int[] rect, int sub, Piece p) {
+        long size = 4L * p.width() * p.height();
+        if (size > maxBytes) {
+            return;
+        }
+        Piece old = entries.put(new Key(src, new ArrayList<>(steps), rect.clone(), sub), p);
+        if (old != null) {
+            bytes -= 4L * old.width() * old.height();
+        }
+        bytes += size;
+        Iterator<Map.Entry<Key, Piece>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Piece e = it.next().getValue();
+            bytes -= 4L * e.width() * e.height();
+            it.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    private static final class Key {
+
+        final RegionSource src;
+        final List<Step> steps;
+        final int[] rect;
+        final int sub;
+        final int hash;
+
+        Key(RegionSource src, List<Step> steps, int[] rect, int sub) {
+            this.src = src;
+            this.steps = steps;
+            this.rect = rect;
+            this.sub = sub;
+            this.hash = Objects.hash(System.identityHashCode(src), steps, Arrays.hashCode(rect), sub);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return hash == k.hash && src == k.src && sub == k.sub
+                    && Arrays.equals(rect, k.rect) && steps.equals(k.steps);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.vmd.edit;
+
+import java.io.IOException;
+
+/**
+ * Una operación de la receta.
+ *
+ * Trabaja a cualquier resolución ({@code scale} = 1 / submuestreo, con las
+ * coordenadas del paso siempre en píxeles de la imagen completa) y sobre
+ * trozos: {@link #source} dice qué parte de la entrada hace falta para una
+ * región de la salida, así {@link Recipe#render} lee y procesa solo eso.
+ * Los pasos no modifican su entrada: un trozo puede estar en el
+ * {@link StageCache}.
+ */
+public interface Step {
+
+    /**
+     * Tamaño {w, h} de la salida para una entrada de inW × inH.
+     */
+    default int[] size(int inW, int inH, double scale) throws IOException {
+        return new int[]{inW, inH};
+    }
+
+    /**
+     * Rectángulo {x, y, w, h} de la entrada del que sale {@code out}.
+     */
+    default int[] source(int[] out, int inW, int inH, double scale) throws IOException {
+        return out;
+    }
+
+    /**
+     * Procesa un trozo de la entrada (de inW × inH en total).
+     */
+    Piece apply(Piece in, int inW, int inH, double scale) throws IOException;
+
+    /**
+     * La línea que lo describe en el archivo de la receta.
+     */
+    String line();
+}
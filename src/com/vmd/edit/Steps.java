@@ -0,0 +1,452 @@
+package com.vmd.edit;
+
+import com.vmd.pixels.ColorPipeline;
+import com.vmd.pixels.Orientation;
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import javax.imageio.ImageIO;
+
+/**
+ * Las operaciones de la receta, con los mismos núcleos de píxeles que usa
+ * el editor. Pintura, stickers y textos se dibujan con Java2D sin pantalla.
+ */
+public final class Steps {
+
+    private static final String[] COLOR_KEYS = {"brightness", "contrast", "saturation", "hue", "sepia"};
+
+    private Steps() {
+    }
+
+    /**
+     * Recorte en coordenadas de la imagen que llega a este paso.
+     */
+    public static final class Crop implements Step {
+
+        public final int x, y, w, h;
+
+        public Crop(int x, int y, int w, int h) {
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+
+        // {x0, y0, x1, y1} a la escala pedida, dentro de la entrada
+        private int[] bounds(int inW, int inH, double scale) throws IOException {
+            int x0 = Math.max(0, (int) Math.floor(x * scale));
+            int y0 = Math.max(0, (int) Math.floor(y * scale));
+            int x1 = Math.min(inW, (int) Math.ceil((x + w) * scale));
+            int y1 = Math.min(inH, (int) Math.ceil((y + h) * scale));
+            if (x1 <= x0 || y1 <= y0) {
+                throw new IOException("El recorte queda fuera de la imagen");
+            }
+            return new int[]{x0, y0, x1, y1};
+        }
+
+        @Override
+        public int[] size(int inW, int inH, double scale) throws IOException {
+            int[] b = bounds(inW, inH, scale);
+            return new int[]{b[2] - b[0], b[3] - b[1]};
+        }
+
+        @Override
+        public int[] source(int[] out, int inW, int inH, double scale) throws IOException {
+            int[] b = bounds(inW, inH, scale);
+            return new int[]{out[0] + b[0], out[1] + b[1], out[2], out[3]};
+        }
+
+        // no copia: el trozo solo cambia de origen
+        @Override
+        public Piece apply(Piece in, int inW, int inH, double scale) throws IOException {
+            int[] b = bounds(inW, inH, scale);
+            return new Piece(in.pixels, in.x - b[0], in.y - b[1]);
+        }
+
+        @Override
+        public String line() {
+            return "crop " + x + " " + y + " " + w + " " + h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Crop)) {
+                return false;
+            }
+            Crop c = (Crop) o;
+            return x == c.x && y == c.y && w == c.w && h == c.h;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(x, y, w, h);
+        }
+    }
+
+    /**
+     * Giro o espejo ({@link Orientation}); varios seguidos se componen en uno.
+     */
+    public static final class Orient implements Step {
+
+        public final int op;
+
+        public Orient(int op) {
+            this.op = op;
+        }
+
+        @Override
+        public int[] size(int inW, int inH, double scale) {
+            return Orientation.swapsAxes(op) ? new int[]{inH, inW} : new int[]{inW, inH};
+        }
+
+        @Override
+        public int[] source(int[] out, int inW, int inH, double scale) {
+            int[] d = size(inW, inH, scale);
+            return Orientation.mapRect(out[0], out[1], out[2], out[3], d[0], d[1], Orientation.inverse(op));
+        }
+
+        @Override
+        public Piece apply(Piece in, int inW, int inH, double scale) {
+            int pw = in.width(), ph = in.height();
+            int[] px = Orientation.apply(in.pixels.argb, pw, ph, op);
+            int[] at = Orientation.mapRect(in.x, in.y, pw, ph, inW, inH, op);
+            Bitmap b = Orientation.swapsAxes(op) ? new Bitmap(px, ph, pw) : new Bitmap(px, pw, ph);
+            return new Piece(b, at[0], at[1]);
+        }
+
+        // como giro horario y, si hace falta, espejo horizontal
+        @Override
+        public String line() {
+            for (int angle = 0; angle < 360; angle += 90) {
+                int rotate = Orientation.forAngle(angle);
+                if (rotate == op) {
+                    return "rotate " + angle;
+                }
+                if (Orientation.compose(rotate, Orientation.FLIP_H) == op) {
+                    return angle == 0 ? "flip h" : "rotate " + angle + "\nflip h";
+                }
+            }
+            throw new AssertionError();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Orient && ((Orient) o).op == op;
+        }
+
+        @Override
+        public int hashCode() {
+            return op;
+        }
+    }
+
+    /**
+     * Ajustes de color ({@link ColorPipeline}).
+     */
+    public static final class Adjust implements Step {
+
+        private final double[] params;
+        private final ColorPipeline pipeline;
+
+        public Adjust(double[] params) {
+            this.params = params.clone();
+            this.pipeline = new ColorPipeline(params);
+        }
+
+        public double[] getParams() {
+            return params.clone();
+        }
+
+        @Override
+        public Piece apply(Piece in, int inW, int inH, double scale) {
+            Bitmap b = in.pixels.copy();
+            pipeline.apply(b.argb, b.width, b.height);
+            return new Piece(b, in.x, in.y);
+        }
+
+        @Override
+        public String line() {
+            StringBuilder sb = new StringBuilder("color");
+            for (int i = 0; i < params.length; i++) {
+                if (params[i] != 0) {
+                    sb.append(' ').append(COLOR_KEYS[i]).append('=').append(num(params[i]));
+                }
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Adjust && Arrays.equals(((Adjust) o).params, params);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(params);
+        }
+    }
+
+    /**
+     * Capa de pintura: los trazos se dibujan en orden sobre una capa
+     * transparente (la goma borra solo lo pintado en ella) y la capa se
+     * compone encima de la imagen.
+     */
+    public static final class Paint implements Step {
+
+        private final List<Stroke> strokes;
+        private final int hash;
+
+        public Paint(List<Stroke> strokes) {
+            this.strokes = Collections.unmodifiableList(new ArrayList<>(strokes));
+            this.hash = this.strokes.hashCode();
+        }
+
+        public List<Stroke> getStrokes() {
+            return strokes;
+        }
+
+        @Override
+        public Piece apply(Piece in, int inW, int inH, double scale) {
+            int w = in.width(), h = in.height();
+            // región del trozo en coordenadas de la imagen completa
+            double rx0 = in.x / scale, ry0 = in.y / scale;
+            double rx1 = (in.x + w) / scale, ry1 = (in.y + h) / scale;
+
+            BufferedImage layer = null;
+            Graphics2D g = null;
+            for (Stroke s : strokes) {
+                double[] b = s.bounds();
+                if (b[2] < rx0 || b[3] < ry0 || b[0] > rx1 || b[1] > ry1) {
+                    continue;
+                }
+                if (layer == null) {
+                    layer = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+                    g = layer.createGraphics();
+                    g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                    g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+                    g.translate(-in.x, -in.y);
+                    g.scale(scale, scale);
+                }
+                g.setComposite(s.erase ? AlphaComposite.Clear : AlphaComposite.SrcOver);
+                g.setColor(new Color(s.argb, true));
+                if (s.size() == 1) {
+                    double r = s.width / 2;
+                    g.fill(new Ellipse2D.Double(s.x(0) - r, s.y(0) - r, s.width, s.width));
+                    continue;
+                }
+                Path2D.Double path = new Path2D.Double();
+                path.moveTo(s.x(0), s.y(0));
+                for (int i = 1; i < s.size(); i++) {
+                    path.lineTo(s.x(i), s.y(i));
+                }
+                g.setStroke(new BasicStroke((float) s.width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                g.draw(path);
+            }
+            if (layer == null) {
+                return in;
+            }
+            g.dispose();
+            Bitmap out = in.pixels.copy();
+            Graphics2D o = out.asBufferedImage().createGraphics();
+            o.drawImage(layer, 0, 0, null);
+            o.dispose();
+            return new Piece(out, in.x, in.y);
+        }
+
+        @Override
+        public String line() {
+            StringBuilder sb = new StringBuilder();
+            for (Stroke s : strokes) {
+                if (sb.length() > 0) {
+                    sb.append('\n');
+                }
+                sb.append("stroke ").append(s.erase ? "erase " : "draw ").append(num(s.width));
+                if (!s.erase) {
+                    sb.append(' ').append(hex(s.argb));
+                }
+                for (int i = 0; i < s.size(); i++) {
+                    sb.append(' ').append(num(s.x(i))).append(',').append(num(s.y(i)));
+                }
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Paint && ((Paint) o).hash == hash && ((Paint) o).strokes.equals(strokes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Imagen encima (marca de agua), dada por una URL. La altura sale de la
+     * proporción de la imagen; se decodifica una vez y se guarda escalada
+     * para cada ancho que se pida.
+     */
+    public static final class Sticker implements Step {
+
+        public final String url;
+        public final double x, y, width;
+        private BufferedImage source;
+        private final Map<Integer, BufferedImage> scaled = new HashMap<>();
+
+        public Sticker(String url, double x, double y, double width) {
+            this.url = url;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+        }
+
+        private synchronized BufferedImage image(int w) throws IOException {
+            BufferedImage s = scaled.get(w);
+            if (s != null) {
+                return s;
+            }
+            if (source == null) {
+                source = ImageIO.read(new URL(url));
+                if (source == null) {
+                    throw new IOException("Formato no soportado: " + url);
+                }
+            }
+            int h = Math.max(1, (int) Math.round((double) source.getHeight() * w / source.getWidth()));
+            s = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = s.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, w, h, null);
+            g.dispose();
+            scaled.put(w, s);
+            return s;
+        }
+
+        @Override
+        public Piece apply(Piece in, int inW, int inH, double scale) throws IOException {
+            int sx = (int) Math.round(x * scale), sy = (int) Math.round(y * scale);
+            BufferedImage img = image(Math.max(1, (int) Math.round(width * scale)));
+            if (sx >= in.x + in.width() || sy >= in.y + in.height()
+                    || sx + img.getWidth() <= in.x || sy + img.getHeight() <= in.y) {
+                return in;
+            }
+            Bitmap out = in.pixels.copy();
+            Graphics2D g = out.asBufferedImage().createGraphics();
+            g.drawImage(img, sx - in.x, sy - in.y, null);
+            g.dispose();
+            return new Piece(out, in.x, in.y);
+        }
+
+        @Override
+        public String line() {
+            return "sticker " + quote(url) + " " + num(x) + " " + num(y) + " " + num(width);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Sticker)) {
+                return false;
+            }
+            Sticker s = (Sticker) o;
+            return url.equals(s.url) && x == s.x && y == s.y && width == s.width;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(url, x, y, width);
+        }
+    }
+
+    /**
+     * Texto con la línea base en (x, y), como las etiquetas del editor.
+     */
+    public static final class Caption implements Step {
+
+        public final String text;
+        public final double x, y;
+        public final double size;
+        public final int argb;
+
+        public Caption(String text, double x, double y, double size, int argb) {
+            this.text = text;
+            this.x = x;
+            this.y = y;
+            this.size = size;
+            this.argb = argb;
+        }
+
+        @Override
+        public Piece apply(Piece in, int inW, int inH, double scale) {
+            Bitmap out = in.pixels.copy();
+            Graphics2D g = out.asBufferedImage().createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+            g.translate(-in.x, -in.y);
+            g.scale(scale, scale);
+            g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 1).deriveFont((float) size));
+            g.setColor(new Color(argb, true));
+            g.drawString(text, (float) x, (float) y);
+            g.dispose();
+            return new Piece(out, in.x, in.y);
+        }
+
+        @Override
+        public String line() {
+            return "text " + quote(text) + " " + num(x) + " " + num(y) + " " + num(size) + " " + hex(argb);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Caption)) {
+                return false;
+            }
+            Caption c = (Caption) o;
+            return text.equals(c.text) && x == c.x && y == c.y && size == c.size && argb == c.argb;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(text, x, y, size, argb);
+        }
+    }
+
+    // Formato de la receta: números cortos, colores #aarrggbb, comillas si hace falta
+
+    static String num(double v) {
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) {
+            return Long.toString((long) v);
+        }
+        String s = String.format(Locale.ROOT, "%.3f", v);
+        s = s.replaceAll("0+$", "");
+        return s.endsWith(".") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    static String hex(int argb) {
+        return String.format(Locale.ROOT, "#%08x", argb);
+    }
+
+    static String quote(String s) {
+        if (!s.isEmpty() && s.chars().noneMatch(c -> Character.isWhitespace(c) || c == '"' || c == '\\')
+                && s.charAt(0) != '#') {
+            return s;
+        }
+        return '"' + s.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+}
@@ -0,0 +1,80 @@
+package com.vmd.edit;
+
+import com.vmd.pixels.Orientation;
+import java.util.Arrays;
+
+/**
+ * Un trazo de pincel o de goma: grosor, color y los puntos (x, y
+ * intercalados) en coordenadas de la imagen.
+ */
+public final class Stroke {
+
+    public final boolean erase;
+    public final double width;
+    public final int argb;          // sin uso en la goma
+    private final double[] points;
+    private final int hash;
+
+    public Stroke(boolean erase, double width, int argb, double[] points) {
+        this.erase = erase;
+        this.width = width;
+        this.argb = erase ? 0 : argb;
+        this.points = points.clone();
+        this.hash = 31 * (31 * Boolean.hashCode(erase) + Double.hashCode(width) + this.argb) + Arrays.hashCode(points);
+    }
+
+    public int size() {
+        return points.length / 2;
+    }
+
+    public double x(int i) {
+        return points[2 * i];
+    }
+
+    public double y(int i) {
+        return points[2 * i + 1];
+    }
+
+    /**
+     * Caja {x0, y0, x1, y1} que cubre el trazo con su grosor.
+     */
+    public double[] bounds() {
+        double x0 = points[0], y0 = points[1], x1 = x0, y1 = y0;
+        for (int i = 2; i < points.length; i += 2) {
+            x0 = Math.min(x0, points[i]);
+            y0 = Math.min(y0, points[i + 1]);
+            x1 = Math.max(x1, points[i]);
+            y1 = Math.max(y1, points[i + 1]);
+        }
+        double r = width / 2 + 1;
+        return new double[]{x0 - r, y0 - r, x1 + r, y1 + r};
+    }
+
+    /**
+     * El mismo trazo sobre la imagen (w × h) girada o espejada.
+     */
+    public Stroke oriented(int op, double w, double h) {
+        double[] out = new double[points.length];
+        for (int i = 0; i < points.length; i += 2) {
+            double[] p = Orientation.mapPoint(points[i], points[i + 1], w, h, op);
+            out[i] = p[0];
+            out[i + 1] = p[1];
+        }
+        return new Stroke(erase, width, argb, out);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Stroke)) {
+            return false;
+        }
+        Stroke s = (Stroke) o;
+        return hash == s.hash && erase == s.erase && width == s.width && argb == s.argb
+                && Arrays.equals(points, s.points);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,42 @@
+package com.vmd.history;
+
+/**
+ * Una edición ya aplicada que se puede deshacer y rehacer.
+ */
+public interface Command {
+
+    void undo();
+
+    void redo();
+
+    /**
+     * Memoria aproximada que retiene el comando, para el presupuesto del
+     * historial.
+     */
+    default long bytes() {
+        return 64;
+    }
+
+    /**
+     * Intenta absorber el comando siguiente (por ejemplo, varios pasos de
+     * rueda sobre el mismo sticker). Si devuelve true, {@code next} no se
+     * guarda aparte.
+     */
+    default boolean mergeWith(Command next) {
+        return false;
+    }
+
+    static Command of(Runnable undo, Runnable redo) {
+        return new Command() {
+            @Override
+            public void undo() {
+                undo.run();
+            }
+
+            @Override
+            public void redo() {
+                redo.run();
+            }
+        };
+    }
+}
@@ -0,0 +1,108 @@
+package com.vmd.history;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Pila de deshacer/rehacer con un presupuesto de memoria.
+ *
+ * Cuando la suma de {@link Command#bytes()} supera el presupuesto se
+ * descartan las ediciones más viejas.
+ */
+public class History {
+
+    public static final long DEFAULT_BUDGET =
+            Long.getLong("vmd.history.mb", 256) * 1024 * 1024;
+
+    private final Deque<Command> undo = new ArrayDeque<>();
+    private final Deque<Command> redo = new ArrayDeque<>();
+    private long budget;
+    private long used = 0;
+    private boolean replaying = false;
+
+    public History() {
+        this(DEFAULT_BUDGET);
+    }
+
+    public History(long budgetBytes) {
+        this.budget = budgetBytes;
+    }
+
+    public void setBudget(long budgetBytes) {
+        this.budget = budgetBytes;
+        evict();
+    }
+
+    /**
+     * Registra una edición que ya se aplicó.
+     */
+    public void push(Command c) {
+        if (replaying || c == null) {
+            return;
+        }
+        for (Command r : redo) {
+            used -= r.bytes();
+        }
+        redo.clear();
+
+        Command top = undo.peekLast();
+        if (top != null && top.mergeWith(c)) {
+            return;
+        }
+        undo.addLast(c);
+        used += c.bytes();
+        evict();
+    }
+
+    public boolean canUndo() {
+        return !undo.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redo.isEmpty();
+    }
+
+    public void undo() {
+        Command c = undo.pollLast();
+        if (c == null) {
+            return;
+        }
+        replay(c, true);
+        redo.addLast(c);
+    }
+
+    public void redo() {
+        Command c = redo.pollLast();
+        if (c == null) {
+            return;
+        }
+        replay(c, false);
+        undo.addLast(c);
+    }
+
+    public void clear() {
+        undo.clear();
+        redo.clear();
+        used = 0;
+    }
+
+    // mientras se deshace, lo que dispare la vista no se vuelve a registrar
+    private void replay(Command c, boolean back) {
+        replaying = true;
+        try {
+            if (back) {
+                c.undo();
+            } else {
+                c.redo();
+            }
+        } finally {
+            replaying = false;
+        }
+    }
+
+    private void evict() {
+        while (used > budget && undo.size() > 1) {
+            used -= undo.pollFirst().bytes();
+        }
+    }
+}
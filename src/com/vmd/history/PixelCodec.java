@@ -0,0 +1,60 @@
+package com.vmd.history;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresión de bloques de píxeles ARGB con Deflate.
+ *
+ * Las teselas de pintura son casi todas transparentes, así que comprimen a
+ * una fracción de su tamaño.
+ */
+public final class PixelCodec {
+
+    private PixelCodec() {
+    }
+
+    public static byte[] pack(int[] argb) {
+        ByteBuffer raw = ByteBuffer.allocate(argb.length * 4);
+        raw.asIntBuffer().put(argb);
+
+        Deflater d = new Deflater(Deflater.BEST_SPEED);
+        d.setInput(raw.array());
+        d.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        byte[] buf = new byte[16 * 1024];
+        while (!d.finished()) {
+            out.write(buf, 0, d.deflate(buf));
+        }
+        d.end();
+        return out.toByteArray();
+    }
+
+    public static int[] unpack(byte[] data, int pixels) {
+        byte[] raw = new byte[pixels * 4];
+        Inflater inf = new Inflater();
+        inf.setInput(data);
+        try {
+            int off = 0;
+            while (off < raw.length && !inf.finished()) {
+                int n = inf.inflate(raw, off, raw.length - off);
+                if (n == 0 && (inf.needsInput() || inf.needsDictionary())) {
+                    throw new IllegalStateException("Datos comprimidos incompletos");
+                }
+                off += n;
+            }
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            inf.end();
+        }
+        int[] argb = new int[pixels];
+        IntBuffer ib = ByteBuffer.wrap(raw).asIntBuffer();
+        ib.get(argb);
+        return argb;
+    }
+}
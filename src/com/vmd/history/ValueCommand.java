@@ -0,0 +1,56 @@
+package com.vmd.history;
+
+import java.util.function.Consumer;
+
+/**
+ * Cambio de un parámetro: guarda el valor anterior y el nuevo, nada más.
+ *
+ * Dos cambios seguidos con la misma {@code key} en menos de
+ * {@link #MERGE_MS} se juntan en uno solo.
+ */
+public class ValueCommand<T> implements Command {
+
+    public static final long MERGE_MS = 600;
+
+    private final Object key;
+    private final Consumer<T> apply;
+    private final T before;
+    private T after;
+    private long time = System.currentTimeMillis();
+
+    /**
+     * @param key   identifica qué se está cambiando; null para no juntar
+     * @param apply aplica un valor (debe dejar la vista igual que cuando se tomó)
+     */
+    public ValueCommand(Object key, Consumer<T> apply, T before, T after) {
+        this.key = key;
+        this.apply = apply;
+        this.before = before;
+        this.after = after;
+    }
+
+    @Override
+    public void undo() {
+        apply.accept(before);
+    }
+
+    @Override
+    public void redo() {
+        apply.accept(after);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean mergeWith(Command next) {
+        if (key == null || !(next instanceof ValueCommand)) {
+            return false;
+        }
+        ValueCommand<?> v = (ValueCommand<?>) next;
+        if (!key.equals(v.key) || v.time - time > MERGE_MS) {
+            return false;
+        }
+        after = (T) v.after;
+        time = v.time;
+        return true;
+    }
+}
@@ -0,0 +1,216 @@
+package com.vmd.io;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Vector;
+
+/**
+ * {@link RenderedImage} que entrega los píxeles por franjas horizontales a
+ * medida que ImageIO los pide, sin armar nunca un BufferedImage completo.
+ *
+ * Los escritores piden las filas de arriba abajo; solo se mantiene en
+ * memoria la franja actual. Los que toman el raster entero de una vez
+ * ({@link #getData()}, {@link #getTile}, como el de JPEG) reciben una vista
+ * de solo lectura que también lee de la franja.
+ */
+public class BandedImage implements RenderedImage {
+
+    /**
+     * Produce la franja de filas [y, y + h) en ARGB no premultiplicado.
+     */
+    public interface BandSource {
+
+        int[] band(int y, int h) throws IOException;
+    }
+
+    private static final int[] ARGB_MASKS = {0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000};
+    private static final int[] RGB_MASKS = {0x00ff0000, 0x0000ff00, 0x000000ff};
+
+    private final int width, height, bandHeight;
+    private final BandSource source;
+    private final ColorModel colorModel;
+    private final SampleModel sampleModel;
+
+    private int[] band;
+    private int bandY = -1, bandH = 0;
+
+    public BandedImage(int width, int height, int bandHeight, boolean alpha, BandSource source) {
+        this.width = width;
+        this.height = height;
+        this.bandHeight = bandHeight;
+        this.source = source;
+        int[] masks = alpha ? ARGB_MASKS : RGB_MASKS;
+        this.colorModel = alpha
+                ? new DirectColorModel(32, masks[0], masks[1], masks[2], masks[3])
+                : new DirectColorModel(24, masks[0], masks[1], masks[2]);
+        this.sampleModel = new SinglePixelPackedSampleModel(
+                DataBuffer.TYPE_INT, width, height, masks);
+    }
+
+    private void ensureBand(int row) {
+        if (row >= bandY && row < bandY + bandH) {
+            return;
+        }
+        int y = (row / bandHeight) * bandHeight;
+        int h = Math.min(bandHeight, height - y);
+        try {
+            band = source.band(y, h);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        bandY = y;
+        bandH = h;
+    }
+
+    @Override
+    public Raster getData(Rectangle r) {
+        Rectangle rect = r.intersection(new Rectangle(0, 0, width, height));
+        int[] out = new int[rect.width * rect.height];
+        for (int row = 0; row < rect.height; row++) {
+            int y = rect.y + row;
+            ensureBand(y);
+            System.arraycopy(band, (y - bandY) * width + rect.x, out, row * rect.width, rect.width);
+        }
+        DataBufferInt db = new DataBufferInt(out, out.length);
+        SampleModel sm = sampleModel.createCompatibleSampleModel(rect.width, rect.height);
+        return Raster.createRaster(sm, db, new Point(rect.x, rect.y));
+    }
+
+    /**
+     * Toda la imagen sin copiarla: los píxeles salen de la franja actual
+     * según se leen, así que hay que recorrerla de arriba abajo.
+     */
+    @Override
+    public Raster getData() {
+        return Raster.createRaster(sampleModel, new BandBuffer(), new Point(0, 0));
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        return getData();
+    }
+
+    // Índice lineal (y * width + x) sobre la franja cargada
+    private final class BandBuffer extends DataBuffer {
+
+        BandBuffer() {
+            super(DataBuffer.TYPE_INT, Math.multiplyExact(width, height));
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            ensureBand(i / width);
+            return band[i - bandY * width];
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            throw new UnsupportedOperationException("solo lectura");
+        }
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            raster = colorModel.createCompatibleWritableRaster(width, height);
+        }
+        raster.setRect(getData(raster.getBounds()));
+        return raster;
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return java.awt.Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return width;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return height;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+}
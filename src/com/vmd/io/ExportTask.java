@@ -0,0 +1,247 @@
+package com.vmd.io;
+
+import com.vmd.perf.Metrics;
+import com.vmd.pixels.PixelOp;
+import com.vmd.pixels.Pixels;
+import com.vmd.viewer.TileSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Predicate;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.Node;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.transform.NonInvertibleTransformException;
+import javafx.scene.transform.Transform;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Exporta la imagen editada por franjas horizontales.
+ *
+ * Para cada franja se decodifica la región de la fuente a resolución
+ * completa y se le aplica el filtro de color (en este hilo). Si
+ * {@code baseView} tiene un giro o volteo sin aplicar, el hilo de JavaFX la
+ * renderiza con él; si no, los píxeles se usan tal cual. JavaFX captura las
+ * capas de encima (pintura, stickers, texto), y aquí se componen y se pasan
+ * al escritor de ImageIO. La memoria depende del tamaño de la franja, no de
+ * la imagen.
+ *
+ * Se debe crear en el hilo de JavaFX y, mientras corre, las capas no deben
+ * cambiar.
+ */
+public class ExportTask extends Task<File> {
+
+    private static final int BAND_PIXELS = 1 << 22;   // ~16 MB por franja
+
+    private final TileSource source;
+    private final Pane layers;
+    private final List<Node> baseNodes;    // se ocultan al capturar las capas
+    private final Predicate<Bounds> hasOverlay;
+    private final PixelOp filter;
+    private final File file;
+    private final String format;
+    private final boolean alpha;
+
+    // estado de baseView al momento de exportar
+    private final Bounds out;
+    private final Transform toSource;
+    private final double fullW, fullH;
+    private final double rotate, scaleX, scaleY;
+    private final boolean transformed;
+
+    private volatile ImageWriter writer;
+    private long bandNanos = 0;             // tiempo armando franjas (hilo de la tarea)
+
+    /**
+     * @param hasOverlay dice si hay algo sobre la imagen en una zona de
+     *                   {@code layers}; las franjas sin nada no se capturan
+     * @param filter     filtro de color de la imagen, o null
+     */
+    public ExportTask(TileSource source, ImageView baseView, Pane layers, List<Node> baseNodes,
+            Predicate<Bounds> hasOverlay, PixelOp filter, File file, String format)
+            throws NonInvertibleTransformException {
+        this.source = source;
+        this.layers = layers;
+        this.baseNodes = baseNodes;
+        this.hasOverlay = hasOverlay;
+        this.filter = filter;
+        this.file = file;
+        this.format = format.toLowerCase();
+        this.alpha = !("jpg".equals(this.format) || "jpeg".equals(this.format));
+
+        this.out = baseView.getBoundsInParent();
+        this.toSource = baseView.getLocalToParentTransform().createInverse();
+        this.fullW = baseView.getFitWidth();
+        this.fullH = baseView.getFitHeight();
+        this.rotate = baseView.getRotate();
+        this.scaleX = baseView.getScaleX();
+        this.scaleY = baseView.getScaleY();
+        this.transformed = rotate % 360 != 0 || scaleX != 1 || scaleY != 1;
+
+        updateTitle(file.getName());
+    }
+
+    @Override
+    protected File call() throws Exception {
+        int w = (int) Math.round(out.getWidth());
+        int h = (int) Math.round(out.getHeight());
+        int bandH = Math.max(1, Math.min(h, BAND_PIXELS / Math.max(1, w)));
+
+        Iterator<ImageWriter> it = ImageIO.getImageWritersByFormatName(format);
+        if (!it.hasNext()) {
+            throw new IOException("Formato no soportado: " + format);
+        }
+        writer = it.next();
+
+        updateMessage("Exportando " + w + " × " + h);
+        updateProgress(0, h);
+
+        boolean ok = false;
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(ios);
+            long t0 = System.nanoTime();
+            writer.write(new BandedImage(w, h, bandH, alpha, (y, bh) -> timedBand(w, y, bh)));
+            // lo que no se fue en armar franjas es del codificador
+            Metrics.record(Metrics.EXPORT_ENCODE, System.nanoTime() - t0 - bandNanos);
+            ok = !isCancelled();
+        } finally {
+            writer.dispose();
+            if (!ok) {
+                file.delete();
+            }
+        }
+        updateProgress(h, h);
+        return file;
+    }
+
+    @Override
+    protected void cancelled() {
+        ImageWriter wr = writer;
+        if (wr != null) {
+            wr.abort();
+        }
+    }
+
+    private int[] timedBand(int w, int y, int bh) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            return band(w, y, bh);
+        } finally {
+            bandNanos += System.nanoTime() - t0;
+        }
+    }
+
+    private int[] band(int w, int y, int bh) throws IOException {
+        if (isCancelled()) {
+            throw new InterruptedIOException("Exportación cancelada");
+        }
+
+        // región de la fuente que cae en esta franja
+        Bounds bandRect = new BoundingBox(out.getMinX(), out.getMinY() + y, w, bh);
+        Bounds r = toSource.transform(bandRect);
+        int sx = (int) Math.max(0, Math.floor(r.getMinX()));
+        int sy = (int) Math.max(0, Math.floor(r.getMinY()));
+        int ex = (int) Math.min(fullW, Math.ceil(r.getMaxX()));
+        int ey = (int) Math.min(fullH, Math.ceil(r.getMaxY()));
+        int pw = Math.max(1, ex - sx), ph = Math.max(1, ey - sy);
+        Image piece = source.read(sx, sy, pw, ph, 1);
+        int[] raw = Pixels.read(piece);
+        pw = (int) piece.getWidth();
+        ph = (int) piece.getHeight();
+        if (filter != null) {
+            filter.apply(raw, pw, ph);
+        }
+        final Image src = (filter != null && transformed) ? Pixels.toImage(raw, pw, ph) : piece;
+
+        long t0 = System.nanoTime();
+        WritableImage[] snaps = onFx(() -> {
+            SnapshotParameters p = new SnapshotParameters();
+            p.setFill(Color.TRANSPARENT);
+            WritableImage base = null;
+            if (transformed) {
+                ImageView iv = new ImageView(src);
+                iv.setRotate(rotate);
+                iv.setScaleX(scaleX);
+                iv.setScaleY(scaleY);
+                base = iv.snapshot(p, null);
+            }
+            if (!hasOverlay.test(bandRect)) {
+                return new WritableImage[]{base, null};
+            }
+            for (Node n : baseNodes) {
+                n.setVisible(false);
+            }
+            p.setViewport(new Rectangle2D(bandRect.getMinX(), bandRect.getMinY(), w, bh));
+            WritableImage over = layers.snapshot(p, null);
+            for (Node n : baseNodes) {
+                n.setVisible(true);
+            }
+            return new WritableImage[]{base, over};
+        });
+        Metrics.record(Metrics.EXPORT_SNAPSHOT, System.nanoTime() - t0);
+
+        // sin giro ni volteo pendiente, la fuente ya es la franja
+        int[] pixels;
+        if (transformed) {
+            pixels = read(snaps[0], w, bh);
+        } else {
+            pixels = new int[w * bh];
+            for (int row = 0, n = Math.min(w, pw); row < Math.min(bh, ph); row++) {
+                System.arraycopy(raw, row * pw, pixels, row * w, n);
+            }
+        }
+        if (snaps[1] != null) {
+            int[] top = read(snaps[1], w, bh);
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = Pixels.over(top[i], pixels[i]);
+            }
+        }
+        if (!alpha) {
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = Pixels.over(pixels[i], 0xffffffff);
+            }
+        }
+
+        updateProgress(y + bh, out.getHeight());
+        return pixels;
+    }
+
+    // Copia una captura a un int[] de w × h; lo que falte queda transparente
+    private static int[] read(WritableImage img, int w, int h) {
+        int[] px = new int[w * h];
+        int iw = Math.min(w, (int) img.getWidth());
+        int ih = Math.min(h, (int) img.getHeight());
+        img.getPixelReader().getPixels(0, 0, iw, ih, PixelFormat.getIntArgbInstance(), px, 0, w);
+        return px;
+    }
+
+    private static <T> T onFx(Callable<T> c) throws IOException {
+        FutureTask<T> f = new FutureTask<>(c);
+        Platform.runLater(f);
+        try {
+            return f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Exportación cancelada");
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+    }
+}
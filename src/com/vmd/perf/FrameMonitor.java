@@ -0,0 +1,45 @@
+package com.vmd.perf;
+
+import javafx.animation.AnimationTimer;
+
+/**
+ * Mide el tiempo entre pulsos de JavaFX ({@link Metrics#FRAME}).
+ *
+ * Un AnimationTimer mantiene los pulsos corriendo aunque nada cambie, así
+ * que solo se enciende mientras se mira: con el panel visible o al
+ * arrancar con {@code -Dvmd.perf=true} para una grabación.
+ */
+public final class FrameMonitor {
+
+    private long last = -1;
+    private boolean running = false;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (last > 0) {
+                Metrics.record(Metrics.FRAME, now - last);
+            }
+            last = now;
+        }
+    };
+
+    public static boolean requestedAtStartup() {
+        return Boolean.getBoolean("vmd.perf");
+    }
+
+    public void start() {
+        if (!running) {
+            running = true;
+            last = -1;
+            timer.start();
+        }
+    }
+
+    public void stop() {
+        if (running) {
+            running = false;
+            timer.stop();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.vmd.perf;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de duraciones (nanosegundos) al estilo HDR: cubetas lineales
+ * dentro de cada potencia de dos, con 16 a 32 por octava, así el error
+ * relativo de un percentil queda por debajo del 6 % en cualquier rango,
+ * con memoria fija. Se puede registrar desde cualquier hilo.
+ */
+public final class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int HALF = SUB >> 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS + 2) * HALF + SUB);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(index(v));
+        total.incrementAndGet();
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+            // reintenta
+        }
+    }
+
+    public long count() {
+        return total.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Valor por debajo del cual cae el {@code p} por ciento de las muestras
+     * (0 si no hay ninguna).
+     */
+    public long percentile(double p) {
+        long n = total.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(p / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        max.set(0);
+    }
+
+    // Debajo de SUB, una cubeta por valor; arriba, HALF cubetas por octava
+    private static int index(long v) {
+        if (v < SUB) {
+            return (int) v;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(v) - (SUB_BITS - 1);
+        return (shift << (SUB_BITS - 1)) + (int) (v >>> shift);
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB) {
+            return index;
+        }
+        int shift = (index >> (SUB_BITS - 1)) - 1;
+        long mantissa = index - ((long) shift << (SUB_BITS - 1));
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
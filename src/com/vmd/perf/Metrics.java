@@ -0,0 +1,55 @@
+package com.vmd.perf;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registro de tiempos del editor. Cada medida va a su histograma y, si JFR
+ * está grabando, a un {@link TimingEvent}.
+ */
+public final class Metrics {
+
+    public static final String FRAME = "cuadro";
+    public static final String BRUSH = "pincel";
+    public static final String ERASE = "goma";
+    public static final String DECODE = "decodificar";
+    public static final String EXPORT_SNAPSHOT = "exportar: captura";
+    public static final String EXPORT_ENCODE = "exportar: codificar";
+
+    // en orden de alta, para mostrarlos siempre igual
+    private static final Map<String, Histogram> histograms = new LinkedHashMap<>();
+
+    static {
+        for (String name : new String[]{FRAME, BRUSH, ERASE, DECODE, EXPORT_SNAPSHOT, EXPORT_ENCODE}) {
+            histograms.put(name, new Histogram());
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static void record(String name, long nanos) {
+        histogram(name).record(nanos);
+        TimingEvent e = new TimingEvent();
+        if (e.isEnabled()) {
+            e.metric = name;
+            e.elapsed = nanos;
+            e.commit();
+        }
+    }
+
+    public static synchronized Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    public static synchronized Map<String, Histogram> all() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(histograms));
+    }
+
+    public static synchronized void reset() {
+        for (Histogram h : histograms.values()) {
+            h.reset();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.vmd.perf;
+
+import java.util.Locale;
+import java.util.Map;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+import javafx.util.Duration;
+
+/**
+ * Panel con los percentiles de cada métrica, refrescado cuatro veces por
+ * segundo. Se muestra arriba a la derecha del contenedor.
+ */
+public class PerfOverlay extends VBox {
+
+    private final Label table = new Label();
+    private final Timeline refresh = new Timeline(new KeyFrame(Duration.millis(250), e -> update()));
+    private final FrameMonitor frames;
+
+    public PerfOverlay(FrameMonitor frames) {
+        this.frames = frames;
+        Button reset = new Button("Reiniciar");
+        reset.setOnAction(e -> {
+            Metrics.reset();
+            update();
+        });
+
+        table.setStyle("-fx-text-fill: white; -fx-font-family: monospace; -fx-font-size: 11;");
+        setSpacing(6);
+        setPadding(new Insets(8));
+        setAlignment(Pos.TOP_RIGHT);
+        setMaxSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        setStyle("-fx-background-color: rgba(30,30,30,0.85); -fx-background-radius: 8;");
+        getChildren().addAll(table, reset);
+        refresh.setCycleCount(Animation.INDEFINITE);
+    }
+
+    public boolean isShown(StackPane container) {
+        return getParent() == container;
+    }
+
+    public void toggle(StackPane container) {
+        if (isShown(container)) {
+            container.getChildren().remove(this);
+            refresh.stop();
+            if (!FrameMonitor.requestedAtStartup()) {
+                frames.stop();
+            }
+            return;
+        }
+        container.getChildren().add(this);
+        StackPane.setAlignment(this, Pos.TOP_RIGHT);
+        StackPane.setMargin(this, new Insets(10));
+        frames.start();
+        update();
+        refresh.play();
+    }
+
+    private void update() {
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%-20s %7s %7s %7s %7s %7s%n",
+                "ms", "p50", "p90", "p99", "máx", "n"));
+        for (Map.Entry<String, Histogram> e : Metrics.all().entrySet()) {
+            Histogram h = e.getValue();
+            sb.append(String.format(Locale.ROOT, "%-20s %7.1f %7.1f %7.1f %7.1f %7d%n", e.getKey(),
+                    ms(h.percentile(50)), ms(h.percentile(90)), ms(h.percentile(99)), ms(h.max()), h.count()));
+        }
+        table.setText(sb.toString().trim());
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+}
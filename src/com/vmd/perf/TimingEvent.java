@@ -0,0 +1,28 @@
+package com.vmd.perf;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Evento de JFR por cada medida de {@link Metrics}. Con una grabación en
+ * curso (por ejemplo {@code -XX:StartFlightRecording}) los tiempos quedan
+ * junto al resto del perfil.
+ */
+@Name("com.vmd.Timing")
+@Label("Tiempo medido")
+@Category({"VMD"})
+@Description("Cuadro, latencia de herramienta, exportación o decodificación")
+@StackTrace(false)
+class TimingEvent extends jdk.jfr.Event {
+
+    @Label("Métrica")
+    String metric;
+
+    @Label("Duración")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;    // "duration" lo usa JFR para el evento mismo
+}
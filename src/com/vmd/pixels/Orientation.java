@@ -0,0 +1,159 @@
+package com.vmd.pixels;
+
+import java.util.stream.IntStream;
+
+/**
+ * Las ocho orientaciones de una imagen (giros de 90° y espejos) y el
+ * kernel que las aplica a un arreglo ARGB.
+ *
+ * Una orientación es un entero: primero se transpone (si está
+ * {@link #TRANSPOSE}) y después se refleja en x y/o en y, ya con las
+ * dimensiones de destino.
+ */
+public final class Orientation {
+
+    public static final int IDENTITY = 0;
+    public static final int FLIP_H = 1;
+    public static final int FLIP_V = 2;
+    public static final int TRANSPOSE = 4;
+
+    public static final int ROTATE_90 = TRANSPOSE | FLIP_H;    // horario
+    public static final int ROTATE_180 = FLIP_H | FLIP_V;
+    public static final int ROTATE_270 = TRANSPOSE | FLIP_V;
+
+    private static final int BLOCK = 64;                // 64 × 64 ints = 16 KB, entra en L1
+    private static final int PARALLEL_MIN = 1 << 16;    // por debajo no vale la pena repartir
+
+    private Orientation() {
+    }
+
+    /**
+     * Giro horario en grados, múltiplo de 90.
+     */
+    public static int forAngle(int degrees) {
+        switch (((degrees % 360) + 360) % 360) {
+            case 90:
+                return ROTATE_90;
+            case 180:
+                return ROTATE_180;
+            case 270:
+                return ROTATE_270;
+            default:
+                return IDENTITY;
+        }
+    }
+
+    public static boolean swapsAxes(int op) {
+        return (op & TRANSPOSE) != 0;
+    }
+
+    /**
+     * Posición de destino de (x, y) en una imagen de w × h.
+     */
+    public static int[] map(int x, int y, int w, int h, int op) {
+        boolean t = swapsAxes(op);
+        int dw = t ? h : w, dh = t ? w : h;
+        int ux = t ? y : x, uy = t ? x : y;
+        return new int[]{(op & FLIP_H) != 0 ? dw - 1 - ux : ux, (op & FLIP_V) != 0 ? dh - 1 - uy : uy};
+    }
+
+    /**
+     * Como {@link #map}, para un punto continuo (no el índice de un
+     * píxel): los bordes de la imagen van a los bordes.
+     */
+    public static double[] mapPoint(double x, double y, double w, double h, int op) {
+        boolean t = swapsAxes(op);
+        double dw = t ? h : w, dh = t ? w : h;
+        double ux = t ? y : x, uy = t ? x : y;
+        return new double[]{(op & FLIP_H) != 0 ? dw - ux : ux, (op & FLIP_V) != 0 ? dh - uy : uy};
+    }
+
+    /**
+     * Rectángulo de destino {x, y, w, h} de un rectángulo de una imagen de
+     * {@code imgW × imgH}.
+     */
+    public static int[] mapRect(int x, int y, int w, int h, int imgW, int imgH, int op) {
+        int[] a = map(x, y, imgW, imgH, op);
+        int[] b = map(x + w - 1, y + h - 1, imgW, imgH, op);
+        int x0 = Math.min(a[0], b[0]), y0 = Math.min(a[1], b[1]);
+        return new int[]{x0, y0, Math.max(a[0], b[0]) - x0 + 1, Math.max(a[1], b[1]) - y0 + 1};
+    }
+
+    /**
+     * Primero {@code a}, después {@code b}.
+     */
+    public static int compose(int a, int b) {
+        // se prueba sobre un rectángulo no cuadrado, así las 8 son distintas
+        int[] p = map(0, 0, 3, 2, a), q = map(1, 0, 3, 2, a);
+        int aw = swapsAxes(a) ? 2 : 3, ah = swapsAxes(a) ? 3 : 2;
+        p = map(p[0], p[1], aw, ah, b);
+        q = map(q[0], q[1], aw, ah, b);
+        for (int op = 0; op < 8; op++) {
+            int[] p2 = map(0, 0, 3, 2, op), q2 = map(1, 0, 3, 2, op);
+            if (p[0] == p2[0] && p[1] == p2[1] && q[0] == q2[0] && q[1] == q2[1]) {
+                return op;
+            }
+        }
+        throw new AssertionError();
+    }
+
+    public static int inverse(int op) {
+        for (int i = 0; i < 8; i++) {
+            if (compose(op, i) == IDENTITY) {
+                return i;
+            }
+        }
+        throw new AssertionError();
+    }
+
+    /**
+     * Aplica la orientación a {@code src} (w × h, fila por fila). El
+     * resultado es un arreglo nuevo de dimensiones intercambiadas si la
+     * orientación transpone.
+     *
+     * Se recorre el destino por bloques para que la transposición lea y
+     * escriba en memoria cercana; las filas de bloques se reparten entre
+     * los núcleos.
+     */
+    public static int[] apply(int[] src, int w, int h, int op) {
+        if (op == IDENTITY) {
+            return src.clone();
+        }
+        boolean t = swapsAxes(op);
+        boolean fh = (op & FLIP_H) != 0, fv = (op & FLIP_V) != 0;
+        final int dw = t ? h : w, dh = t ? w : h;
+
+        // índice en src del píxel (dx, dy) = s0 + dx * ax + dy * ay
+        final int ax, ay, s0;
+        if (t) {
+            ax = fh ? -w : w;
+            ay = fv ? -1 : 1;
+            s0 = (fh ? (dw - 1) * w : 0) + (fv ? dh - 1 : 0);
+        } else {
+            ax = fh ? -1 : 1;
+            ay = fv ? -w : w;
+            s0 = (fv ? (dh - 1) * w : 0) + (fh ? dw - 1 : 0);
+        }
+
+        int[] dst = new int[dw * dh];
+        IntStream rows = IntStream.range(0, (dh + BLOCK - 1) / BLOCK);
+        if ((long) dw * dh >= PARALLEL_MIN) {
+            rows = rows.parallel();
+        }
+        rows.forEach(br -> {
+            int y0 = br * BLOCK, y1 = Math.min(dh, y0 + BLOCK);
+            for (int x0 = 0; x0 < dw; x0 += BLOCK) {
+                int x1 = Math.min(dw, x0 + BLOCK);
+                for (int y = y0; y < y1; y++) {
+                    int d = y * dw + x0;
+                    int s = s0 + x0 * ax + y * ay;
+                    for (int x = x0; x < x1; x++) {
+                        dst[d++] = src[s];
+                        s += ax;
+                    }
+                }
+            }
+        });
+        return dst;
+    }
+}
@@ -0,0 +1,13 @@
+package com.vmd.pixels;
+
+/**
+ * Operación sobre un bloque de píxeles ARGB, en el lugar.
+ *
+ * Las implementaciones son inmutables: la misma instancia se usa desde el
+ * hilo de JavaFX y desde los hilos de fondo (teselas, exportación).
+ */
+@FunctionalInterface
+public interface PixelOp {
+
+    void apply(int[] argb, int w, int h);
+}
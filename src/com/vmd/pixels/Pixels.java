@@ -0,0 +1,86 @@
+package com.vmd.pixels;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+/**
+ * Paso de {@link Image} a arreglos ARGB (no premultiplicados) y de vuelta.
+ */
+public final class Pixels {
+
+    private Pixels() {
+    }
+
+    public static int[] read(Image img) {
+        return read(img, 0, 0, (int) img.getWidth(), (int) img.getHeight());
+    }
+
+    public static int[] read(Image img, int x, int y, int w, int h) {
+        int[] px = new int[w * h];
+        img.getPixelReader().getPixels(x, y, w, h, PixelFormat.getIntArgbInstance(), px, 0, w);
+        return px;
+    }
+
+    public static WritableImage toImage(int[] argb, int w, int h) {
+        WritableImage img = new WritableImage(w, h);
+        img.getPixelWriter().setPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), argb, 0, w);
+        return img;
+    }
+
+    /**
+     * Reduce a la mitad promediando bloques de 2x2 (el borde impar se
+     * repite). Devuelve un arreglo de max(1, w/2) x max(1, h/2).
+     */
+    public static int[] halve(int[] src, int w, int h) {
+        int hw = Math.max(1, w / 2);
+        int hh = Math.max(1, h / 2);
+        int[] dst = new int[hw * hh];
+        for (int y = 0; y < hh; y++) {
+            int r0 = Math.min(2 * y, h - 1) * w;
+            int r1 = Math.min(2 * y + 1, h - 1) * w;
+            for (int x = 0; x < hw; x++) {
+                int x0 = Math.min(2 * x, w - 1);
+                int x1 = Math.min(2 * x + 1, w - 1);
+                int a = src[r0 + x0], b = src[r0 + x1], c = src[r1 + x0], d = src[r1 + x1];
+                int out = 0;
+                for (int sh = 0; sh < 32; sh += 8) {
+                    int sum = ((a >>> sh) & 0xff) + ((b >>> sh) & 0xff) + ((c >>> sh) & 0xff) + ((d >>> sh) & 0xff);
+                    out |= ((sum + 2) >> 2) << sh;
+                }
+                dst[y * hw + x] = out;
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * {@code src} sobre {@code dst}, ARGB no premultiplicado.
+     */
+    public static int over(int src, int dst) {
+        int sa = src >>> 24;
+        if (sa == 255) {
+            return src;
+        }
+        if (sa == 0) {
+            return dst;
+        }
+        int da = dst >>> 24;
+        int dw = da * (255 - sa) / 255;
+        int oa = sa + dw;
+        int r = (((src >> 16) & 0xff) * sa + ((dst >> 16) & 0xff) * dw) / oa;
+        int g = (((src >> 8) & 0xff) * sa + ((dst >> 8) & 0xff) * dw) / oa;
+        int b = ((src & 0xff) * sa + (dst & 0xff) * dw) / oa;
+        return (oa << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    public static Color color(int argb) {
+        return Color.rgb((argb >> 16) & 0xff, (argb >> 8) & 0xff, argb & 0xff, (argb >>> 24) / 255.0);
+    }
+
+    public static int argb(Color c) {
+        return ((int) Math.round(c.getOpacity() * 255) << 24) | ((int) Math.round(c.getRed() * 255) << 16)
+                | ((int) Math.round(c.getGreen() * 255) << 8) | (int) Math.round(c.getBlue() * 255);
+    }
+}
@@ -0,0 +1,254 @@
+package com.vmd.project;
+
+import com.vmd.edit.Recipe;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Archivo de proyecto: la imagen original (por ruta), la receta de la
+ * edición, los stickers y textos y la pintura, en teselas comprimidas con
+ * {@code PixelCodec} (solo las que tienen algo).
+ *
+ * Es una secuencia de bloques {@code [tipo int][largo long][datos]} tras
+ * el encabezado; un lector salta los tipos que no conoce.
+ * <pre>
+ * SRC   ruta de la imagen (UTF-8)
+ * EDIT  receta: orientación, color, trazos y recorte
+ * OBJS  receta: stickers y textos
+ * TIDX  lado de tesela, cantidad y por tesela {clave, posición en TDAT, largo}
+ * TDAT  las teselas comprimidas, una detrás de otra
+ * </pre>
+ * Al abrir solo se leen los bloques chicos; el archivo queda abierto y
+ * cada tesela se lee de TDAT (lectura posicional, sin mapear) recién
+ * cuando se la pide. Hay que cerrarlo antes de reemplazar el archivo.
+ */
+public final class ProjectFile implements Closeable {
+
+    private static final int MAGIC = 0x564d4450;   // "VMDP"
+    private static final int VERSION = 1;
+
+    private static final int SRC = fourcc("SRC ");
+    private static final int EDIT = fourcc("EDIT");
+    private static final int OBJS = fourcc("OBJS");
+    private static final int TIDX = fourcc("TIDX");
+    private static final int TDAT = fourcc("TDAT");
+
+    private final FileChannel channel;
+    private final File source;
+    private final Recipe edit, objects;
+    private final int tileSize;
+    private final Map<Long, Supplier<byte[]>> tiles = new HashMap<>();
+
+    private ProjectFile(FileChannel channel, File source, Recipe edit, Recipe objects, int tileSize) {
+        this.channel = channel;
+        this.source = source;
+        this.edit = edit;
+        this.objects = objects;
+        this.tileSize = tileSize;
+    }
+
+    public File getSource() {
+        return source;
+    }
+
+    public Recipe getEdit() {
+        return edit;
+    }
+
+    public Recipe getObjects() {
+        return objects;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Teselas de pintura por clave; cada una se lee del archivo al pedirla,
+     * así que solo sirven mientras el proyecto siga abierto.
+     */
+    public Map<Long, Supplier<byte[]>> getTiles() {
+        return Collections.unmodifiableMap(tiles);
+    }
+
+    public static ProjectFile open(File file) throws IOException {
+        FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return open(ch, file);
+        } catch (IOException | RuntimeException ex) {
+            ch.close();
+            throw ex;
+        }
+    }
+
+    private static ProjectFile open(FileChannel ch, File file) throws IOException {
+        ByteBuffer head = read(ch, 0, 8, file);
+        if (head.getInt() != MAGIC) {
+            throw new IOException("No es un proyecto: " + file.getName());
+        }
+        if (head.getInt() > VERSION) {
+            throw new IOException("Proyecto de una versión más nueva: " + file.getName());
+        }
+
+        String src = null, editText = "", objectsText = "";
+        ByteBuffer index = null;
+        long dataAt = -1, dataLen = 0;
+        long pos = 8;
+        while (pos < ch.size()) {
+            ByteBuffer h = read(ch, pos, 12, file);
+            int type = h.getInt();
+            long len = h.getLong();
+            long at = pos + 12;
+            if (len < 0 || at + len > ch.size()) {
+                throw new IOException("Proyecto truncado: " + file.getName());
+            }
+            if (type == TDAT) {
+                dataAt = at;
+                dataLen = len;
+            } else if (type == SRC || type == EDIT || type == OBJS || type == TIDX) {
+                ByteBuffer b = read(ch, at, (int) len, file);
+                if (type == TIDX) {
+                    index = b;
+                } else {
+                    String s = new String(b.array(), StandardCharsets.UTF_8);
+                    if (type == SRC) {
+                        src = s;
+                    } else if (type == EDIT) {
+                        editText = s;
+                    } else {
+                        objectsText = s;
+                    }
+                }
+            }
+            pos = at + len;
+        }
+        if (src == null) {
+            throw new IOException("El proyecto no dice qué imagen usa: " + file.getName());
+        }
+
+        File base = file.getAbsoluteFile().getParentFile();
+        ProjectFile project = new ProjectFile(ch, locate(new File(src), base), Recipe.parse(editText, base),
+                Recipe.parse(objectsText, base), index != null ? index.getInt() : 0);
+        if (index != null) {
+            int n = index.getInt();
+            for (int i = 0; i < n; i++) {
+                long key = index.getLong();
+                long off = index.getLong();
+                int len = index.getInt();
+                if (dataAt < 0 || off < 0 || len < 0 || off + len > dataLen) {
+                    throw new IOException("Índice de teselas dañado: " + file.getName());
+                }
+                long at = dataAt + off;
+                project.tiles.put(key, () -> {
+                    try {
+                        return read(ch, at, len, file).array();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            }
+        }
+        return project;
+    }
+
+    // Si la imagen ya no está donde estaba, se busca junto al proyecto
+    private static File locate(File src, File base) {
+        if (src.isFile()) {
+            return src;
+        }
+        File near = new File(base, src.getName());
+        return near.isFile() ? near : src;
+    }
+
+    /**
+     * Escribe el proyecto. Se escribe en un temporal que después reemplaza
+     * al archivo, así un error a mitad de camino no pisa el anterior. Si
+     * el anterior está abierto hay que cerrarlo antes (en Windows no se
+     * puede reemplazar un archivo abierto).
+     */
+    public static void save(File file, File source, Recipe edit, Recipe objects,
+            int tileSize, Map<Long, byte[]> tiles) throws IOException {
+        File tmp = File.createTempFile(".vmdp", ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                text(out, SRC, source.getAbsolutePath());
+                text(out, EDIT, edit.toString());
+                text(out, OBJS, objects.toString());
+
+                long dataLen = 0;
+                for (byte[] b : tiles.values()) {
+                    dataLen += b.length;
+                }
+                chunk(out, TIDX, 8 + 20L * tiles.size());
+                out.writeInt(tileSize);
+                out.writeInt(tiles.size());
+                long off = 0;
+                for (Map.Entry<Long, byte[]> e : tiles.entrySet()) {
+                    out.writeLong(e.getKey());
+                    out.writeLong(off);
+                    out.writeInt(e.getValue().length);
+                    off += e.getValue().length;
+                }
+                chunk(out, TDAT, dataLen);
+                for (byte[] b : tiles.values()) {
+                    out.write(b);
+                }
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static void chunk(DataOutputStream out, int type, long len) throws IOException {
+        out.writeInt(type);
+        out.writeLong(len);
+    }
+
+    private static void text(DataOutputStream out, int type, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        chunk(out, type, b.length);
+        out.write(b);
+    }
+
+    private static ByteBuffer read(FileChannel ch, long pos, int len, File file) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(len);
+        while (b.hasRemaining()) {
+            if (ch.read(b, pos + b.position()) < 0) {
+                throw new IOException("Proyecto truncado: " + file.getName());
+            }
+        }
+        b.flip();
+        return b;
+    }
+
+    private static int fourcc(String s) {
+        return (s.charAt(0) << 24) | (s.charAt(1) << 16) | (s.charAt(2) << 8) | s.charAt(3);
+    }
+}
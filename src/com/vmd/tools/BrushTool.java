@@ -1,45 +1,50 @@
 package com.vmd.tools;
 
+import com.vmd.history.History;
+import com.vmd.perf.Metrics;
+import javafx.event.EventHandler;
 import javafx.geometry.Insets;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
 import javafx.scene.control.ColorPicker;
 import javafx.scene.control.Slider;
-import javafx.scene.effect.BlendMode;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.StrokeLineCap;
-import javafx.scene.shape.StrokeLineJoin;
 
 public class BrushTool {
 
-    private final Canvas canvas;
+    private final PaintLayer canvas;
+    private final History history;
     private final Pane layers;
     private final Runnable disablePan, enablePan;
     private final HBox toolbar;
-    private final GraphicsContext gc;
 
     private boolean visible = false;
     private final ColorPicker color = new ColorPicker(Color.RED);
     private final Slider size = new Slider(1, 30, 6);
 
-    public BrushTool(Canvas canvas, Pane layers, Runnable disablePan, Runnable enablePan) {
+    private final EventHandler<MouseEvent> onPress = this::start;
+    private final EventHandler<MouseEvent> onDrag = this::drag;
+    private final EventHandler<MouseEvent> onRelease = this::end;
+
+    // los puntos se dibujan una vez por pulso, como una sola polilínea
+    private final PointerPipeline pipeline = new PointerPipeline(true, this::drawSamples, Metrics.BRUSH);
+
+    public BrushTool(PaintLayer canvas, History history, Pane layers, Runnable disablePan, Runnable enablePan) {
         this.canvas = canvas;
+        this.history = history;
         this.layers = layers;
         this.disablePan = disablePan;
         this.enablePan = enablePan;
 
-        gc = canvas.getGraphicsContext2D();
-
-        gc.setLineCap(StrokeLineCap.ROUND);
-        gc.setLineJoin(StrokeLineJoin.ROUND);
-
         Button clear = new Button("Borrar Todo");
         Button close = new Button("✕");
-        clear.setOnAction(e -> gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight()));
+        clear.setOnAction(e -> {
+            canvas.beginEdit();
+            canvas.clear();
+            history.push(canvas.endEdit());
+        });
         close.setOnAction(e -> hide());
 
         toolbar = new HBox(8, color, size, clear, close);
@@ -74,38 +79,43 @@ public class BrushTool {
     public void toggle() { if (visible) hide(); else show(); }
 
     private void enableHandlers(boolean on) {
+        // mismas instancias para poder quitarlas
         if (on) {
-            canvas.addEventHandler(MouseEvent.MOUSE_PRESSED, this::start);
-            canvas.addEventHandler(MouseEvent.MOUSE_DRAGGED, this::drag);
-            canvas.addEventHandler(MouseEvent.MOUSE_RELEASED, e -> e.consume());
+            canvas.addEventHandler(MouseEvent.MOUSE_PRESSED, onPress);
+            canvas.addEventHandler(MouseEvent.MOUSE_DRAGGED, onDrag);
+            canvas.addEventHandler(MouseEvent.MOUSE_RELEASED, onRelease);
         } else {
-            canvas.removeEventHandler(MouseEvent.MOUSE_PRESSED, this::start);
-            canvas.removeEventHandler(MouseEvent.MOUSE_DRAGGED, this::drag);
+            canvas.removeEventHandler(MouseEvent.MOUSE_PRESSED, onPress);
+            canvas.removeEventHandler(MouseEvent.MOUSE_DRAGGED, onDrag);
+            canvas.removeEventHandler(MouseEvent.MOUSE_RELEASED, onRelease);
         }
     }
 
     private void start(MouseEvent e) {
-        gc.setGlobalAlpha(1.0);
-        gc.setGlobalBlendMode(BlendMode.SRC_OVER);
-        gc.setEffect(null);              
-        gc.setStroke(color.getValue());
-        gc.setLineWidth(size.getValue());
+        // El estado de pintura se fija una vez por trazo
+        canvas.beginEdit();
+        canvas.beginStroke(color.getValue(), size.getValue());
 
-        gc.beginPath();
-        gc.moveTo(e.getX(), e.getY());
-        gc.stroke();
+        double x = e.getX();
+        double y = e.getY();
+        canvas.strokePolyline(new double[]{x}, new double[]{y}, 1); // punto inicial
+        pipeline.begin(x, y);
 
         e.consume();
     }
 
     private void drag(MouseEvent e) {
-        gc.setGlobalAlpha(1.0);
-        gc.setGlobalBlendMode(BlendMode.SRC_OVER);
-        gc.setStroke(color.getValue());
-        gc.setLineWidth(size.getValue());
+        pipeline.add(e.getX(), e.getY());
+        e.consume();
+    }
+
+    private void drawSamples(double[] xs, double[] ys, int n) {
+        canvas.strokePolyline(xs, ys, n);
+    }
 
-        gc.lineTo(e.getX(), e.getY());
-        gc.stroke(); 
+    private void end(MouseEvent e) {
+        pipeline.end();
+        history.push(canvas.endEdit());
         e.consume();
     }
 }
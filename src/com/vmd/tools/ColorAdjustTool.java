@@ -1,38 +1,42 @@
 package com.vmd.tools;
 
+import com.vmd.history.History;
+import com.vmd.history.ValueCommand;
+import com.vmd.pixels.ColorPipeline;
+import com.vmd.viewer.TiledImageLayer;
+import java.util.Arrays;
 import javafx.beans.binding.DoubleBinding;
 import javafx.geometry.Insets;
 import javafx.scene.control.Button;
-import javafx.scene.effect.ColorAdjust;
-import javafx.scene.effect.Effect;
-import javafx.scene.effect.SepiaTone;
-import javafx.scene.image.ImageView;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 
+import static com.vmd.pixels.ColorPipeline.BRIGHTNESS;
+import static com.vmd.pixels.ColorPipeline.CONTRAST;
+import static com.vmd.pixels.ColorPipeline.HUE;
+import static com.vmd.pixels.ColorPipeline.SATURATION;
+import static com.vmd.pixels.ColorPipeline.SEPIA;
+
 
 public class ColorAdjustTool {
 
-    private final ImageView baseView;
+    private final TiledImageLayer tiles;
     private final Pane layers;
     private final HBox toolbar;
+    private final History history;
 
-    // Efectos
-    private final ColorAdjust color = new ColorAdjust(); // brillo, contraste, saturación, hue
-    private final SepiaTone sepia = new SepiaTone(0);    // 0 a 1
-    private Effect chain; // color -> sepia
+    // brillo, contraste, saturación, hue, sepia; se aplican a los píxeles
+    // con ColorPipeline, no como Effect del nodo
+    private final double[] params = new double[5];
 
     private boolean visible = false;
 
     private static final double STEP = 0.1;
 
-    public ColorAdjustTool(ImageView baseView, Pane layers) {
-        this.baseView = baseView;
+    public ColorAdjustTool(TiledImageLayer tiles, Pane layers, History history) {
+        this.tiles = tiles;
         this.layers = layers;
-
-        sepia.setInput(color);
-        chain = sepia;
-        baseView.setEffect(chain);
+        this.history = history;
 
         // Botones
         Button bn       = btn("B/N", () -> setBlackWhite());
@@ -75,35 +79,57 @@ public class ColorAdjustTool {
     public void toggle() { if (visible) hide(); else show(); }
 
     private void setBlackWhite() {
-        sepia.setLevel(0);
-        color.setSaturation(-1); // B/N directo
-        color.setHue(0);
-        color.setContrast(0);
-        color.setBrightness(0);
+        params[SEPIA] = 0;
+        params[SATURATION] = -1; // B/N directo
+        params[HUE] = 0;
+        params[CONTRAST] = 0;
+        params[BRIGHTNESS] = 0;
     }
 
     private void toggleSepia() {
-        sepia.setLevel(sepia.getLevel() > 0 ? 0 : 0.8);
+        params[SEPIA] = params[SEPIA] > 0 ? 0 : 0.8;
     }
 
-    private void incBrightness(double d) { color.setBrightness(clamp(color.getBrightness() + d)); }
-    private void incContrast(double d)   { color.setContrast(clamp(color.getContrast() + d)); }
-    private void incSaturation(double d) { color.setSaturation(clamp(color.getSaturation() + d)); }
+    private void incBrightness(double d) { params[BRIGHTNESS] = clamp(params[BRIGHTNESS] + d); }
+    private void incContrast(double d)   { params[CONTRAST] = clamp(params[CONTRAST] + d); }
+    private void incSaturation(double d) { params[SATURATION] = clamp(params[SATURATION] + d); }
 
     private void resetAll() {
-        color.setBrightness(0);
-        color.setContrast(0);
-        color.setSaturation(0);
-        color.setHue(0);
-        sepia.setLevel(0);
+        Arrays.fill(params, 0);
     }
 
     private static double clamp(double v) { return Math.max(-1, Math.min(1, v)); }
 
+    /**
+     * Fija los ajustes sin pasar por el historial (al abrir un proyecto).
+     */
+    public void setParams(double[] p) {
+        apply(p);
+    }
+
+    // Estado completo para deshacer: brillo, contraste, saturación, hue, sepia
+    private double[] state() {
+        return params.clone();
+    }
+
+    private void apply(double[] s) {
+        System.arraycopy(s, 0, params, 0, params.length);
+        render();
+    }
+
+    private void render() {
+        tiles.setFilter(ColorPipeline.isIdentity(params) ? null : new ColorPipeline(params));
+    }
+
     // Helpers UI
     private Button btn(String text, Runnable action) {
         Button b = new Button(text);
-        b.setOnAction(e -> action.run());
+        b.setOnAction(e -> {
+            double[] before = state();
+            action.run();
+            render();
+            history.push(new ValueCommand<>(null, this::apply, before, state()));
+        });
         b.setStyle("-fx-text-fill: white; -fx-background-color: #3a3a3a; -fx-background-radius: 8; -fx-font-weight: bold;");
         return b;
     }
@@ -1,11 +1,14 @@
 package com.vmd.tools;
 
+import com.vmd.history.History;
+import com.vmd.history.ValueCommand;
+import com.vmd.viewer.TileSource;
+import com.vmd.viewer.TiledImageLayer;
 import javafx.geometry.Insets;
 import javafx.geometry.Point2D;
 import javafx.geometry.Pos;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Cursor;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
@@ -14,16 +17,23 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.Region;
 import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.shape.StrokeType;
 import javafx.scene.transform.Scale;
 import javafx.scene.transform.Translate;
 
 public class CropTool {
 
     private final Pane layers;     
-    private final Canvas overlay;  
+    private final PaintLayer paint;
+    // La selección es un nodo aparte: no toca los píxeles de la capa de pintura
+    private final Pane glass = new Pane();
+    private final Rectangle selection = new Rectangle();
     private final ImageView baseView;
+    private final TiledImageLayer tiles;
     private final Translate pan;   
     private final Scale zoom;     
+    private final History history;
 
     private boolean cropMode = false;
     private boolean hasSelection = false;
@@ -31,17 +41,28 @@ public class CropTool {
 
     private HBox toolbar;
 
-    public CropTool(Pane layers, Canvas overlay, ImageView baseView, Translate pan, Scale zoom) {
+    public CropTool(Pane layers, PaintLayer paint, ImageView baseView, TiledImageLayer tiles,
+            Translate pan, Scale zoom, History history) {
         this.layers = layers;
-        this.overlay = overlay;
+        this.paint = paint;
         this.baseView = baseView;
+        this.tiles = tiles;
         this.pan = pan;
         this.zoom = zoom;
+        this.history = history;
 
         buildToolbar();
-     
-        this.overlay.setMouseTransparent(true);
-        this.overlay.setPickOnBounds(true);
+
+        selection.setFill(new Color(0, 0.5, 1, 0.20)); // azul translúcido
+        selection.setStroke(Color.WHITE);
+        selection.setStrokeWidth(1.5);
+        selection.setStrokeType(StrokeType.INSIDE);
+        selection.setVisible(false);
+
+        glass.getChildren().add(selection);
+        glass.setPickOnBounds(true);
+        glass.prefWidthProperty().bind(layers.widthProperty());
+        glass.prefHeightProperty().bind(layers.heightProperty());
     }
 
 
@@ -79,20 +100,18 @@ public class CropTool {
         cropMode = true;
         hasSelection = false;
 
-        overlay.setWidth(baseView.getImage().getWidth());
-        overlay.setHeight(baseView.getImage().getHeight());
-
         clearOverlay();
 
-        overlay.toFront();
+        if (!layers.getChildren().contains(glass)) {
+            layers.getChildren().add(glass);
+        }
+        glass.toFront();
         toolbar.toFront();
-        overlay.setMouseTransparent(false);
-        overlay.setPickOnBounds(true);
 
         layers.setCursor(Cursor.CROSSHAIR);
         toolbar.setVisible(true);
 
-        overlay.setOnMousePressed(e -> {
+        glass.setOnMousePressed(e -> {
             if (!cropMode) {
                 return;
             }
@@ -105,7 +124,7 @@ public class CropTool {
             e.consume(); 
         });
 
-        overlay.setOnMouseDragged(e -> {
+        glass.setOnMouseDragged(e -> {
             if (!cropMode) {
                 return;
             }
@@ -117,7 +136,7 @@ public class CropTool {
             e.consume();
         });
 
-        overlay.setOnMouseReleased(e -> {
+        glass.setOnMouseReleased(e -> {
             if (!cropMode) {
                 return;
             }
@@ -148,27 +167,113 @@ public class CropTool {
         double x2 = Math.max(selStartX, selEndX);
         double y2 = Math.max(selStartY, selEndY);
 
-        Image img = baseView.getImage();
-        x1 = clamp(x1, 0, img.getWidth());
-        y1 = clamp(y1, 0, img.getHeight());
-        x2 = clamp(x2, 0, img.getWidth());
-        y2 = clamp(y2, 0, img.getHeight());
+        // coordenadas de la imagen completa; baseView solo tiene el preview
+        double fullW = baseView.getFitWidth();
+        double fullH = baseView.getFitHeight();
+        x1 = clamp(x1, 0, fullW);
+        y1 = clamp(y1, 0, fullH);
+        x2 = clamp(x2, 0, fullW);
+        y2 = clamp(y2, 0, fullH);
 
+        int x = (int) Math.round(x1);
+        int y = (int) Math.round(y1);
         int w = (int) Math.round(x2 - x1);
         int h = (int) Math.round(y2 - y1);
         if (w <= 1 || h <= 1) {
             exitCropModeClean();
             return;
         }
+        crop(x, y, w, h);
+        exitCropModeClean();
+    }
 
-        WritableImage cropped = new WritableImage(
-                img.getPixelReader(), (int) Math.round(x1), (int) Math.round(y1), w, h);
+    /**
+     * Recorta a (x, y, w, h), en coordenadas de la imagen tal como se ve
+     * ahora (ya recortada, si lo estaba).
+     */
+    public void crop(int x, int y, int w, int h) {
+        double fullW = baseView.getFitWidth();
 
-        baseView.setImage(cropped);
-        overlay.setWidth(cropped.getWidth());
-        overlay.setHeight(cropped.getHeight());
+        // El recorte es una vista: el preview sigue siendo la misma imagen
+        // con otro viewport, la fuente una región de la misma fuente y la
+        // pintura otra ventana de las mismas teselas. No se copian píxeles.
+        Image img = baseView.getImage();
+        Rectangle2D vp = baseView.getViewport();
+        if (vp == null) {
+            vp = new Rectangle2D(0, 0, img.getWidth(), img.getHeight());
+        }
+        double r = vp.getWidth() / fullW;
+        int px = (int) Math.floor(x * r);
+        int py = (int) Math.floor(y * r);
+        int pw = Math.max(1, Math.min((int) Math.ceil(w * r), (int) vp.getWidth() - px));
+        int ph = Math.max(1, Math.min((int) Math.ceil(h * r), (int) vp.getHeight() - py));
+        Rectangle2D cropped = new Rectangle2D(vp.getMinX() + px, vp.getMinY() + py, pw, ph);
+
+        Frame before = current();
+        tiles.crop(x, y, w, h);
+        Frame after = new Frame(img, cropped, w, h, tiles.getSource(),
+                paint.getViewX() + x, paint.getViewY() + y);
+        apply(after);
+        history.push(new ValueCommand<>(null, this::apply, before, after));
+    }
 
-        layers.setPrefSize(cropped.getWidth(), cropped.getHeight());
+    /**
+     * Deja en memoria solo lo visible del recorte actual: el preview pasa a
+     * ser una copia del viewport y se sueltan las teselas de pintura de
+     * fuera. El historial se vacía, porque sus pasos apuntan a lo que se
+     * descarta.
+     */
+    public void compact() {
+        Image img = baseView.getImage();
+        Rectangle2D vp = baseView.getViewport();
+        if (img == null || vp == null) {
+            return;
+        }
+        WritableImage copy = new WritableImage(img.getPixelReader(),
+                (int) vp.getMinX(), (int) vp.getMinY(), (int) vp.getWidth(), (int) vp.getHeight());
+        baseView.setViewport(null);
+        baseView.setImage(copy);
+        paint.compact();
+        history.clear();
+    }
+
+    // Lo que cambia un recorte: viewport del preview, tamaño, fuente de
+    // teselas y ventana de la pintura
+    private static final class Frame {
+
+        final Image preview;
+        final Rectangle2D viewport;
+        final double w, h;
+        final TileSource source;
+        final double paintX, paintY;
+
+        Frame(Image preview, Rectangle2D viewport, double w, double h, TileSource source,
+                double paintX, double paintY) {
+            this.preview = preview;
+            this.viewport = viewport;
+            this.w = w;
+            this.h = h;
+            this.source = source;
+            this.paintX = paintX;
+            this.paintY = paintY;
+        }
+    }
+
+    private Frame current() {
+        return new Frame(baseView.getImage(), baseView.getViewport(), baseView.getFitWidth(),
+                baseView.getFitHeight(), tiles.getSource(), paint.getViewX(), paint.getViewY());
+    }
+
+    private void apply(Frame f) {
+        baseView.setImage(f.preview);
+        baseView.setViewport(f.viewport);
+        baseView.setFitWidth(f.w);
+        baseView.setFitHeight(f.h);
+        tiles.restore(f.source);
+
+        paint.setView(f.paintX, f.paintY, f.w, f.h);
+
+        layers.setPrefSize(f.w, f.h);
         layers.setMinSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
         layers.setMaxSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
 
@@ -176,30 +281,18 @@ public class CropTool {
         zoom.setY(1);
         pan.setX(0);
         pan.setY(0);
-
-        exitCropModeClean();
     }
 
     private void drawOverlay() {
-        GraphicsContext gc = overlay.getGraphicsContext2D();
-        gc.clearRect(0, 0, overlay.getWidth(), overlay.getHeight());
-
-        double rx = Math.min(selStartX, selEndX);
-        double ry = Math.min(selStartY, selEndY);
-        double rw = Math.abs(selEndX - selStartX);
-        double rh = Math.abs(selEndY - selStartY);
-
-        gc.setFill(new Color(0, 0.5, 1, 0.20)); // azul translúcido
-        gc.setStroke(Color.WHITE);
-        gc.setLineWidth(1.5);
-
-        gc.fillRect(rx, ry, rw, rh);
-        gc.strokeRect(rx + 0.5, ry + 0.5, Math.max(0, rw - 1), Math.max(0, rh - 1));
+        selection.setX(Math.min(selStartX, selEndX));
+        selection.setY(Math.min(selStartY, selEndY));
+        selection.setWidth(Math.abs(selEndX - selStartX));
+        selection.setHeight(Math.abs(selEndY - selStartY));
+        selection.setVisible(true);
     }
 
     private void clearOverlay() {
-        GraphicsContext gc = overlay.getGraphicsContext2D();
-        gc.clearRect(0, 0, overlay.getWidth(), overlay.getHeight());
+        selection.setVisible(false);
     }
 
     private void exitCropModeClean() {
@@ -210,10 +303,10 @@ public class CropTool {
         layers.setCursor(Cursor.DEFAULT);
         toolbar.setVisible(false);
 
-        overlay.setMouseTransparent(true);
-        overlay.setOnMousePressed(null);
-        overlay.setOnMouseDragged(null);
-        overlay.setOnMouseReleased(null);
+        glass.setOnMousePressed(null);
+        glass.setOnMouseDragged(null);
+        glass.setOnMouseReleased(null);
+        layers.getChildren().remove(glass);
     }
 
     private double clamp(double v, double min, double max) {
@@ -0,0 +1,70 @@
+package com.vmd.tools;
+
+import java.util.BitSet;
+
+/**
+ * Zonas de una superficie que cambiaron, en una grilla de teselas de
+ * {@link #TILE} píxeles.
+ *
+ * Quien procese los cambios solo necesita recorrer las teselas marcadas.
+ */
+public class DirtyRegion {
+
+    public static final int TILE = 256;
+
+    private int width, height, cols, rows;
+    private final BitSet tiles = new BitSet();
+
+    public DirtyRegion(double width, double height) {
+        reset(width, height);
+    }
+
+    /**
+     * Cambia el tamaño de la superficie y deja todo limpio.
+     */
+    public void reset(double width, double height) {
+        this.width = (int) Math.ceil(width);
+        this.height = (int) Math.ceil(height);
+        cols = Math.max(1, (this.width + TILE - 1) / TILE);
+        rows = Math.max(1, (this.height + TILE - 1) / TILE);
+        clear();
+    }
+
+    public void clear() {
+        tiles.clear();
+    }
+
+    public boolean isEmpty() {
+        return tiles.isEmpty();
+    }
+
+    public void mark(double x, double y, double w, double h) {
+        int c0 = Math.max(0, (int) Math.floor(x / TILE));
+        int r0 = Math.max(0, (int) Math.floor(y / TILE));
+        int c1 = Math.min(cols - 1, (int) Math.floor((x + w) / TILE));
+        int r1 = Math.min(rows - 1, (int) Math.floor((y + h) / TILE));
+        if (c0 > c1 || r0 > r1) {
+            return;
+        }
+        for (int r = r0; r <= r1; r++) {
+            tiles.set(r * cols + c0, r * cols + c1 + 1);
+        }
+    }
+
+    @FunctionalInterface
+    public interface TileVisitor {
+
+        void visit(int x, int y, int w, int h);
+    }
+
+    /**
+     * Recorre las teselas marcadas, recortadas al tamaño de la superficie.
+     */
+    public void forEachTile(TileVisitor v) {
+        for (int i = tiles.nextSetBit(0); i >= 0; i = tiles.nextSetBit(i + 1)) {
+            int x = (i % cols) * TILE;
+            int y = (i / cols) * TILE;
+            v.visit(x, y, Math.min(TILE, width - x), Math.min(TILE, height - y));
+        }
+    }
+}
@@ -1,11 +1,12 @@
 package com.vmd.tools;
 
+import com.vmd.history.History;
+import com.vmd.perf.Metrics;
+import javafx.event.EventHandler;
 import javafx.geometry.Insets;
 import javafx.geometry.Point2D;
 import javafx.scene.Cursor;
 import javafx.scene.ImageCursor;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
 import javafx.scene.control.Slider;
 import javafx.scene.image.Image;
@@ -15,7 +16,8 @@ import javafx.scene.layout.Pane;
 
 public class EraseTool {
 
-    private final Canvas target;          
+    private final PaintLayer target;
+    private final History history;          
     private final Pane layers;           
     private final Runnable disablePan, enablePan;
 
@@ -26,8 +28,17 @@ public class EraseTool {
 
     private final ImageCursor eraserCursor;
 
-    public EraseTool(Canvas target, Pane layers, Runnable disablePan, Runnable enablePan, String iconPath) {
+    // el último punto de cada lote abre el siguiente: el trazo no tiene huecos
+    private final PointerPipeline pipeline = new PointerPipeline(true, this::eraseSamples, Metrics.ERASE);
+
+    // se guardan para poder quitarlos en hide()
+    private final EventHandler<MouseEvent> onPress = this::press;
+    private final EventHandler<MouseEvent> onDrag = this::drag;
+    private final EventHandler<MouseEvent> onRelease = this::release;
+
+    public EraseTool(PaintLayer target, History history, Pane layers, Runnable disablePan, Runnable enablePan, String iconPath) {
         this.target = target;
+        this.history = history;
         this.layers = layers;
         this.disablePan = disablePan;
         this.enablePan = enablePan;
@@ -96,23 +107,44 @@ public class EraseTool {
 
     private void enableHandlers(boolean on) {
         if (on) {
-            glass.addEventHandler(MouseEvent.MOUSE_PRESSED, this::erase);
-            glass.addEventHandler(MouseEvent.MOUSE_DRAGGED, this::erase);
-            glass.addEventHandler(MouseEvent.MOUSE_RELEASED, e -> e.consume());
+            glass.addEventHandler(MouseEvent.MOUSE_PRESSED, onPress);
+            glass.addEventHandler(MouseEvent.MOUSE_DRAGGED, onDrag);
+            glass.addEventHandler(MouseEvent.MOUSE_RELEASED, onRelease);
         } else {
-            glass.removeEventHandler(MouseEvent.MOUSE_PRESSED, this::erase);
-            glass.removeEventHandler(MouseEvent.MOUSE_DRAGGED, this::erase);
+            glass.removeEventHandler(MouseEvent.MOUSE_PRESSED, onPress);
+            glass.removeEventHandler(MouseEvent.MOUSE_DRAGGED, onDrag);
+            glass.removeEventHandler(MouseEvent.MOUSE_RELEASED, onRelease);
         }
     }
 
-    private void erase(MouseEvent e) {
-        GraphicsContext gc = target.getGraphicsContext2D();
-        double s = size.getValue();
-
-        Point2D p = target.sceneToLocal(glass.localToScene(e.getX(), e.getY()));
+    private void press(MouseEvent e) {
+        Point2D p = toTarget(e);
+        target.beginEdit();
+        // un clic sin arrastre también borra
+        target.erasePolyline(new double[]{p.getX()}, new double[]{p.getY()}, 1, size.getValue());
+        pipeline.begin(p.getX(), p.getY());
+        e.consume();
+    }
 
-        gc.clearRect(p.getX() - s / 2, p.getY() - s / 2, s, s);
+    private void drag(MouseEvent e) {
+        Point2D p = toTarget(e);
+        pipeline.add(p.getX(), p.getY());
+        e.consume();
+    }
 
+    private void release(MouseEvent e) {
+        pipeline.end();
+        target.releaseEmptyTiles();
+        history.push(target.endEdit());
         e.consume();
     }
+
+    private Point2D toTarget(MouseEvent e) {
+        return target.sceneToLocal(glass.localToScene(e.getX(), e.getY()));
+    }
+
+    // un solo trazo por pulso con todas las muestras acumuladas
+    private void eraseSamples(double[] xs, double[] ys, int n) {
+        target.erasePolyline(xs, ys, n, size.getValue());
+    }
 }
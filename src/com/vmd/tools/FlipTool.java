@@ -1,5 +1,7 @@
 package com.vmd.tools;
 
+import com.vmd.history.History;
+import com.vmd.history.ValueCommand;
 import javafx.beans.binding.DoubleBinding;
 import javafx.geometry.Insets;
 import javafx.scene.control.Button;
@@ -13,26 +15,30 @@ public class FlipTool {
     private final ImageView baseView;
     private final Pane layers;
     private final HBox toolbar;
+    private final History history;
+    private final Orienter orienter;
 
     private boolean visible = false;
-    private boolean flippedH = false;
-    private boolean flippedV = false;
 
-    public FlipTool(ImageView baseView, Pane layers) {
+    public FlipTool(ImageView baseView, Pane layers, History history, Orienter orienter) {
         this.baseView = baseView;
         this.layers = layers;
+        this.history = history;
+        this.orienter = orienter;
 
         Button btnFlipH = new Button("Flip H");
         Button btnFlipV = new Button("Flip V");
         Button btnReset = new Button("Reset");
+        Button btnApply = new Button("Aplicar");
         Button btnClose = new Button("✕");
 
         btnFlipH.setOnAction(e -> flipH());
         btnFlipV.setOnAction(e -> flipV());
         btnReset.setOnAction(e -> reset());
+        btnApply.setOnAction(e -> orienter.apply());
         btnClose.setOnAction(e -> hide());
 
-        toolbar = new HBox(8, btnFlipH, btnFlipV, btnReset, btnClose);
+        toolbar = new HBox(8, btnFlipH, btnFlipV, btnReset, btnApply, btnClose);
         toolbar.setPadding(new Insets(8));
         toolbar.setStyle("-fx-background-color: rgba(30,30,30,0.85);"
                 + "-fx-background-radius: 10;"
@@ -43,6 +49,7 @@ public class FlipTool {
         btnFlipH.setStyle(btnStyle);
         btnFlipV.setStyle(btnStyle);
         btnReset.setStyle(btnStyle);
+        btnApply.setStyle(btnStyle);
         btnClose.setStyle("-fx-text-fill: white; -fx-background-color: #b02a37; -fx-background-radius: 8;");
 
         DoubleBinding centerX = layers.widthProperty().subtract(toolbar.widthProperty()).divide(2);
@@ -76,20 +83,37 @@ public class FlipTool {
         }
     }
 
+    // el estado vive en baseView: al aplicar, Orienter lo vuelve a la identidad
+    private boolean flippedH() {
+        return baseView.getScaleX() < 0;
+    }
+
+    private boolean flippedV() {
+        return baseView.getScaleY() < 0;
+    }
+
     private void flipH() {
-        flippedH = !flippedH;
-        baseView.setScaleX(flippedH ? -1 : 1);
+        changeFlip(!flippedH(), flippedV());
     }
 
     private void flipV() {
-        flippedV = !flippedV;
-        baseView.setScaleY(flippedV ? -1 : 1);
+        changeFlip(flippedH(), !flippedV());
     }
 
     private void reset() {
-        flippedH = false;
-        flippedV = false;
-        baseView.setScaleX(1);
-        baseView.setScaleY(1);
+        changeFlip(false, false);
+    }
+
+    // estado en bits: 1 = horizontal, 2 = vertical
+    private void changeFlip(boolean h, boolean v) {
+        int before = (flippedH() ? 1 : 0) | (flippedV() ? 2 : 0);
+        int after = (h ? 1 : 0) | (v ? 2 : 0);
+        setFlip(after);
+        history.push(new ValueCommand<>(null, this::setFlip, before, after));
+    }
+
+    private void setFlip(int bits) {
+        baseView.setScaleX((bits & 1) != 0 ? -1 : 1);
+        baseView.setScaleY((bits & 2) != 0 ? -1 : 1);
     }
 }
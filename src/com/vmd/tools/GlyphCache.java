@@ -0,0 +1,118 @@
+package com.vmd.tools;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import javafx.geometry.Bounds;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import javafx.scene.transform.Scale;
+
+/**
+ * Textos ya rasterizados, por contenido, tamaño y color. Cada etiqueta se
+ * maqueta y rasteriza una sola vez; después dibujarla es un drawImage.
+ *
+ * Cada texto se rasteriza a la potencia de dos que cubre la escala de
+ * pantalla ({@link #scaleFor}): con el zoom lejos la imagen es chica y con
+ * el zoom cerca sigue nítida.
+ */
+class GlyphCache {
+
+    private static final double MIN_SCALE = 0.125;
+    private static final double MAX_SCALE = 4;     // acota la memoria por texto
+    private static final long MAX_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * Un texto rasterizado. {@code minX}/{@code minY} son relativos al
+     * origen del texto (la línea base), como en {@link Text}.
+     */
+    static final class Run {
+
+        final Image image;
+        final double minX, minY, width, height;
+
+        Run(Image image, Bounds b) {
+            this.image = image;
+            this.minX = b.getMinX();
+            this.minY = b.getMinY();
+            this.width = b.getWidth();
+            this.height = b.getHeight();
+        }
+    }
+
+    private final LinkedHashMap<Key, Run> runs = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes = 0;
+    private final Text scratch = new Text();
+
+    /**
+     * Escala de rasterizado para una escala de pantalla.
+     */
+    static double scaleFor(double screenScale) {
+        double s = MIN_SCALE;
+        while (s < screenScale && s < MAX_SCALE) {
+            s *= 2;
+        }
+        return s;
+    }
+
+    Run get(String text, double size, Color color, double scale) {
+        Key k = new Key(text, size, color, scale);
+        Run r = runs.get(k);
+        if (r != null) {
+            return r;
+        }
+        scratch.setText(text);
+        scratch.setFont(Font.font(size));
+        scratch.setFill(color);
+        SnapshotParameters sp = new SnapshotParameters();
+        sp.setFill(Color.TRANSPARENT);
+        sp.setTransform(new Scale(scale, scale));
+        r = new Run(scratch.snapshot(sp, null), scratch.getBoundsInLocal());
+
+        runs.put(k, r);
+        bytes += bytesOf(r);
+        Iterator<Map.Entry<Key, Run>> it = runs.entrySet().iterator();
+        while (bytes > MAX_BYTES && it.hasNext()) {
+            bytes -= bytesOf(it.next().getValue());
+            it.remove();
+        }
+        return r;
+    }
+
+    private static long bytesOf(Run r) {
+        return (long) r.image.getWidth() * (long) r.image.getHeight() * 4;
+    }
+
+    private static final class Key {
+
+        final String text;
+        final double size;
+        final Color color;
+        final double scale;
+
+        Key(String text, double size, Color color, double scale) {
+            this.text = text;
+            this.size = size;
+            this.color = color;
+            this.scale = scale;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return size == k.size && scale == k.scale && text.equals(k.text) && color.equals(k.color);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(text, size, color, scale);
+        }
+    }
+}
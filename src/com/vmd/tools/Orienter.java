@@ -0,0 +1,141 @@
+package com.vmd.tools;
+
+import com.vmd.history.Command;
+import com.vmd.history.History;
+import com.vmd.pixels.Orientation;
+import com.vmd.pixels.Pixels;
+import com.vmd.viewer.TileSource;
+import com.vmd.viewer.TiledImageLayer;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.Pane;
+
+/**
+ * Aplica a los píxeles el giro y el espejo que {@code baseView} muestra
+ * como transformación de la vista.
+ *
+ * El preview se reorienta con {@link Orientation#apply}, la fuente de
+ * teselas pasa a ser una vista orientada (la resolución completa se
+ * reorienta al leerla) y la pintura se mueve con la imagen. Después la
+ * vista se dibuja sin transformar y el recorte y la exportación trabajan
+ * sobre coordenadas normales.
+ */
+public class Orienter {
+
+    private final ImageView baseView;
+    private final TiledImageLayer tiles;
+    private final PaintLayer paint;
+    private final Pane layers;
+    private final History history;
+
+    public Orienter(ImageView baseView, TiledImageLayer tiles, PaintLayer paint, Pane layers, History history) {
+        this.baseView = baseView;
+        this.tiles = tiles;
+        this.paint = paint;
+        this.layers = layers;
+        this.history = history;
+    }
+
+    /**
+     * Orientación que muestra la vista: JavaFX escala antes de rotar.
+     */
+    public int pending() {
+        int flip = (baseView.getScaleX() < 0 ? Orientation.FLIP_H : 0)
+                | (baseView.getScaleY() < 0 ? Orientation.FLIP_V : 0);
+        return Orientation.compose(flip, Orientation.forAngle((int) Math.round(baseView.getRotate())));
+    }
+
+    /**
+     * Aplica la orientación {@code op} como si la vista la mostrara.
+     */
+    public void apply(int op) {
+        for (int angle = 0; angle < 360; angle += 90) {
+            for (int flip = 0; flip <= Orientation.FLIP_H; flip += Orientation.FLIP_H) {
+                if (Orientation.compose(flip, Orientation.forAngle(angle)) == op) {
+                    setView(angle, flip != 0 ? -1 : 1, 1);
+                    apply();
+                    return;
+                }
+            }
+        }
+    }
+
+    public void apply() {
+        int op = pending();
+        if (op == Orientation.IDENTITY || baseView.getImage() == null) {
+            return;
+        }
+        final double rotate = baseView.getRotate();
+        final double sx = baseView.getScaleX(), sy = baseView.getScaleY();
+
+        // se orienta el preview entero y se lleva el viewport (el recorte)
+        final Image before = baseView.getImage();
+        final Rectangle2D beforeViewport = baseView.getViewport();
+        final TileSource beforeSource = tiles.getSource();
+        int w = (int) before.getWidth(), h = (int) before.getHeight();
+        int[] px = Orientation.apply(Pixels.read(before), w, h, op);
+        final Image after = Orientation.swapsAxes(op) ? Pixels.toImage(px, h, w) : Pixels.toImage(px, w, h);
+        Rectangle2D afterViewport = null;
+        if (beforeViewport != null) {
+            int[] r = Orientation.mapRect((int) beforeViewport.getMinX(), (int) beforeViewport.getMinY(),
+                    (int) beforeViewport.getWidth(), (int) beforeViewport.getHeight(), w, h, op);
+            afterViewport = new Rectangle2D(r[0], r[1], r[2], r[3]);
+        }
+        final Rectangle2D vpAfter = afterViewport;
+
+        tiles.orient(op);
+        final TileSource afterSource = tiles.getSource();
+        final int inverse = Orientation.inverse(op);
+
+        Runnable redo = () -> {
+            show(after, vpAfter, afterSource, op);
+            setView(0, 1, 1);
+        };
+        Runnable undo = () -> {
+            show(before, beforeViewport, beforeSource, inverse);
+            setView(rotate, sx, sy);
+        };
+        redo.run();
+
+        final long bytes = 4L * w * h * 2;
+        history.push(new Command() {
+            @Override
+            public void undo() {
+                undo.run();
+            }
+
+            @Override
+            public void redo() {
+                redo.run();
+            }
+
+            @Override
+            public long bytes() {
+                return bytes;
+            }
+        });
+    }
+
+    private void show(Image preview, Rectangle2D viewport, TileSource source, int op) {
+        double fw = baseView.getFitWidth(), fh = baseView.getFitHeight();
+        if (Orientation.swapsAxes(op)) {
+            double t = fw;
+            fw = fh;
+            fh = t;
+        }
+        baseView.setImage(preview);
+        baseView.setViewport(viewport);
+        baseView.setFitWidth(fw);
+        baseView.setFitHeight(fh);
+        tiles.restore(source);
+        paint.orient(op);
+        layers.setPrefSize(fw, fh);
+    }
+
+    private void setView(double rotate, double sx, double sy) {
+        baseView.setRotate(rotate);
+        baseView.setScaleX(sx);
+        baseView.setScaleY(sy);
+    }
+}
@@ -0,0 +1,63 @@
+package com.vmd.tools;
+
+import com.vmd.edit.Stroke;
+import com.vmd.history.Command;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Edición de píxeles en la {@link PaintLayer}: teselas comprimidas de antes
+ * y después, solo las que cambiaron, y los trazos que agregó o quitó.
+ */
+class PaintEdit implements Command {
+
+    private final PaintLayer layer;
+    private final Map<Long, byte[]> before, after;
+    private final int strokesAt;
+    private final List<Stroke> strokesBefore, strokesAfter;
+    private final long bytes;
+
+    PaintEdit(PaintLayer layer, Map<Long, byte[]> before, Map<Long, byte[]> after,
+            int strokesAt, List<Stroke> strokesBefore, List<Stroke> strokesAfter) {
+        this.layer = layer;
+        this.before = before;
+        this.after = after;
+        this.strokesAt = strokesAt;
+        this.strokesBefore = strokesBefore;
+        this.strokesAfter = strokesAfter;
+        this.bytes = size(before) + size(after) + points(strokesBefore) + points(strokesAfter);
+    }
+
+    @Override
+    public void undo() {
+        layer.restoreTiles(before);
+        layer.replaceStrokes(strokesAt, strokesAfter.size(), strokesBefore);
+    }
+
+    @Override
+    public void redo() {
+        layer.restoreTiles(after);
+        layer.replaceStrokes(strokesAt, strokesBefore.size(), strokesAfter);
+    }
+
+    @Override
+    public long bytes() {
+        return bytes;
+    }
+
+    private static long points(List<Stroke> strokes) {
+        long n = 0;
+        for (Stroke s : strokes) {
+            n += 48 + 16L * s.size();
+        }
+        return n;
+    }
+
+    private static long size(Map<Long, byte[]> m) {
+        long n = 64;
+        for (byte[] b : m.values()) {
+            n += 32 + (b == null ? 0 : b.length);
+        }
+        return n;
+    }
+}
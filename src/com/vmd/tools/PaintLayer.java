@@ -0,0 +1,706 @@
+package com.vmd.tools;
+
+import com.vmd.history.Command;
+import com.vmd.edit.Stroke;
+import com.vmd.history.PixelCodec;
+import com.vmd.pixels.Orientation;
+import com.vmd.pixels.Pixels;
+import com.vmd.viewer.ViewportAware;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import javafx.geometry.Bounds;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.effect.BlendMode;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
+
+/**
+ * Capa de pintura dividida en teselas de {@link DirtyRegion#TILE} píxeles.
+ *
+ * Cada tesela es un Canvas chico que se crea la primera vez que se pinta
+ * en ella; las que la goma deja totalmente transparentes se liberan. Una
+ * imagen enorme sin pintar no cuesta nada. Las coordenadas son las de la
+ * imagen, igual que con el Canvas único de antes.
+ *
+ * Un recorte no mueve píxeles: solo cambia la ventana visible
+ * ({@link #setView}); la capa se desplaza y recorta para mostrarla.
+ *
+ * Las teselas que quedan fuera del área visible del visor se ocultan
+ * ({@link #setViewport}), salvo con {@link #setCulling} apagado.
+ *
+ * Además de los píxeles se anotan los trazos ({@link #getStrokes}), para
+ * la receta de la edición.
+ *
+ * Las teselas de un proyecto abierto ({@link #load}) quedan comprimidas
+ * hasta que se muestran o se tocan.
+ */
+public class PaintLayer extends Pane implements ViewportAware {
+
+    private static final int TILE = DirtyRegion.TILE;
+
+    private final Map<Long, Tile> tiles = new HashMap<>();
+    private final Map<Long, Supplier<byte[]>> pending = new HashMap<>();   // sin descomprimir
+    private final DirtyRegion erased = new DirtyRegion(1, 1);   // a revisar si quedaron vacías
+
+    // Edición en curso: estado previo de cada tesela tocada (null = no existía)
+    private Map<Long, byte[]> recorded = null;
+
+    private double fullWidth = 1, fullHeight = 1;       // imagen sin recortar
+    private double viewX = 0, viewY = 0, width = 1, height = 1;   // ventana visible
+
+    // área visible del visor en coordenadas locales (null = todo)
+    private Bounds visibleArea;
+    private boolean culling = true;
+
+    // estado del trazo actual
+    private Paint stroke = Color.BLACK;
+    private double lineWidth = 1;
+    private int strokeId = 0;
+
+    // Trazos terminados, en orden, y el que está en curso
+    private final List<Stroke> strokes = new ArrayList<>();
+    private double[] points = new double[64];
+    private int pointCount = 0;
+    private boolean pointsErase;
+    private double pointsWidth;
+    private int pointsArgb, pointsStrokeId;
+
+    // Edición en curso: desde dónde cambió la lista y qué había ahí
+    private int strokesFrom;
+    private List<Stroke> strokesRemoved;
+
+    private static final class Tile {
+
+        final Canvas canvas;
+        final GraphicsContext gc;
+        int strokeId = -1;
+
+        Tile(int x, int y) {
+            canvas = new Canvas(TILE, TILE);
+            canvas.setLayoutX(x);
+            canvas.setLayoutY(y);
+            gc = canvas.getGraphicsContext2D();
+            // se dibuja en coordenadas de la imagen
+            gc.setTransform(1, 0, 0, 1, -x, -y);
+        }
+    }
+
+    public PaintLayer() {
+        setPickOnBounds(true);
+    }
+
+    /**
+     * Fija el tamaño de la imagen completa; la ventana visible pasa a ser
+     * toda la imagen.
+     */
+    public void setSize(double w, double h) {
+        fullWidth = w;
+        fullHeight = h;
+        erased.reset(w, h);
+        setView(0, 0, w, h);
+    }
+
+    /**
+     * Muestra solo una ventana de la imagen (un recorte). Las teselas de
+     * fuera se ocultan con el clip pero se conservan: deshacer el recorte
+     * las vuelve a mostrar.
+     */
+    public void setView(double x, double y, double w, double h) {
+        viewX = x;
+        viewY = y;
+        width = w;
+        height = h;
+        // lo local (x, y) queda en el (0, 0) de la capa de encima
+        setTranslateX(-x);
+        setTranslateY(-y);
+        setMinSize(x + w, y + h);
+        setPrefSize(x + w, y + h);
+        setMaxSize(x + w, y + h);
+        setClip(new Rectangle(x, y, w, h));
+        // el área visible estaba en las coordenadas de antes; hasta el
+        // próximo aviso del visor se muestra todo
+        visibleArea = null;
+        refreshVisible();
+    }
+
+    @Override
+    public void setViewport(Bounds visible, double scale) {
+        visibleArea = visible == null ? null : parentToLocal(visible);
+        refreshVisible();
+    }
+
+    /**
+     * Apagado, todas las teselas quedan visibles (por ejemplo, para exportar).
+     */
+    public void setCulling(boolean on) {
+        culling = on;
+        refreshVisible();
+    }
+
+    private void refreshVisible() {
+        if (!pending.isEmpty() && (!culling || visibleArea != null)) {
+            List<Long> shown = new ArrayList<>();
+            for (Long k : pending.keySet()) {
+                if (!culling || visibleArea.intersects(col(k) * TILE, row(k) * TILE, TILE, TILE)) {
+                    shown.add(k);
+                }
+            }
+            for (Long k : shown) {
+                materialize(k);
+            }
+        }
+        for (Tile t : tiles.values()) {
+            cull(t);
+        }
+    }
+
+    private Tile materialize(long k) {
+        Supplier<byte[]> data = pending.remove(k);
+        return data == null ? tiles.get(k) : put(k, data.get());
+    }
+
+    private void materializeAll() {
+        for (Long k : new ArrayList<>(pending.keySet())) {
+            materialize(k);
+        }
+    }
+
+    private void cull(Tile t) {
+        t.canvas.setVisible(!culling || visibleArea == null
+                || t.canvas.getBoundsInParent().intersects(visibleArea));
+    }
+
+    public double getFullWidth() {
+        return fullWidth;
+    }
+
+    public double getFullHeight() {
+        return fullHeight;
+    }
+
+    public double getViewX() {
+        return viewX;
+    }
+
+    public double getViewY() {
+        return viewY;
+    }
+
+    public double getSurfaceWidth() {
+        return width;
+    }
+
+    public double getSurfaceHeight() {
+        return height;
+    }
+
+    /**
+     * Descarta las teselas que quedaron completamente fuera de la ventana.
+     * Después ya no se puede deshacer un recorte sin perder esa pintura.
+     */
+    public void compact() {
+        pending.keySet().removeIf(k -> col(k) * TILE + TILE <= viewX || row(k) * TILE + TILE <= viewY
+                || col(k) * TILE >= viewX + width || row(k) * TILE >= viewY + height);
+        tiles.entrySet().removeIf(e -> {
+            Bounds b = e.getValue().canvas.getBoundsInParent();
+            boolean out = b.getMaxX() <= viewX || b.getMaxY() <= viewY
+                    || b.getMinX() >= viewX + width || b.getMinY() >= viewY + height;
+            if (out) {
+                getChildren().remove(e.getValue().canvas);
+            }
+            return out;
+        });
+    }
+
+    public boolean isEmpty() {
+        return tiles.isEmpty() && pending.isEmpty();
+    }
+
+    /**
+     * Empieza un trazo: el estado se aplica una vez por tesela tocada.
+     */
+    public void beginStroke(Paint color, double lineWidth) {
+        this.stroke = color;
+        this.lineWidth = lineWidth;
+        strokeId++;
+    }
+
+    public void strokePolyline(double[] xs, double[] ys, int n) {
+        double x0 = xs[0], y0 = ys[0], x1 = x0, y1 = y0;
+        for (int i = 1; i < n; i++) {
+            x0 = Math.min(x0, xs[i]);
+            y0 = Math.min(y0, ys[i]);
+            x1 = Math.max(x1, xs[i]);
+            y1 = Math.max(y1, ys[i]);
+        }
+        double pad = lineWidth / 2 + 1;
+        forTiles(x0 - pad, y0 - pad, x1 + pad, y1 + pad, true, t -> {
+            if (t.strokeId != strokeId) {
+                t.strokeId = strokeId;
+                t.gc.setGlobalAlpha(1.0);
+                t.gc.setGlobalBlendMode(BlendMode.SRC_OVER);
+                t.gc.setEffect(null);
+                t.gc.setStroke(stroke);
+                t.gc.setLineWidth(lineWidth);
+                t.gc.setLineCap(StrokeLineCap.ROUND);
+                t.gc.setLineJoin(StrokeLineJoin.ROUND);
+            }
+            if (n == 1) {
+                t.gc.strokeLine(xs[0], ys[0], xs[0], ys[0]);
+            } else {
+                t.gc.strokePolyline(xs, ys, n);
+            }
+        });
+        record(false, lineWidth, stroke instanceof Color ? Pixels.argb((Color) stroke) : 0xff000000, xs, ys, n);
+    }
+
+    /**
+     * Borra a lo largo de una polilínea con el grosor dado, como un trazo
+     * continuo. Canvas no tiene un modo de mezcla que borre, así que se arma
+     * el contorno del trazo (un cuadrilátero por segmento y un polígono
+     * redondo por vértice), se usa de clip y se limpia la caja una sola vez
+     * por tesela.
+     */
+    public void erasePolyline(double[] xs, double[] ys, int n, double width) {
+        double r = width / 2;
+        double x0 = xs[0], y0 = ys[0], x1 = x0, y1 = y0;
+        for (int i = 1; i < n; i++) {
+            x0 = Math.min(x0, xs[i]);
+            y0 = Math.min(y0, ys[i]);
+            x1 = Math.max(x1, xs[i]);
+            y1 = Math.max(y1, ys[i]);
+        }
+        final double bx = x0 - r - 1, by = y0 - r - 1;
+        final double bw = x1 - x0 + 2 * r + 2, bh = y1 - y0 + 2 * r + 2;
+
+        forTiles(bx, by, bx + bw, by + bh, false, t -> {
+            GraphicsContext gc = t.gc;
+            gc.save();
+            gc.beginPath();
+            for (int i = 0; i < n; i++) {
+                addDisc(gc, xs[i], ys[i], r);
+                if (i > 0) {
+                    addSegment(gc, xs[i - 1], ys[i - 1], xs[i], ys[i], r);
+                }
+            }
+            gc.clip();
+            gc.clearRect(bx, by, bw, bh);
+            gc.restore();
+        });
+        erased.mark(bx, by, bw, bh);
+        record(true, width, 0, xs, ys, n);
+    }
+
+    /**
+     * Los trazos que produjeron la pintura, en coordenadas de la imagen
+     * completa (sin recorte).
+     */
+    public List<Stroke> getStrokes() {
+        finishStroke();
+        return Collections.unmodifiableList(new ArrayList<>(strokes));
+    }
+
+    // Suma puntos al trazo en curso; el primero de cada tanda suele
+    // repetir el último de la anterior
+    private void record(boolean erase, double w, int argb, double[] xs, double[] ys, int n) {
+        if (pointCount > 0 && (erase != pointsErase || w != pointsWidth || argb != pointsArgb
+                || (!erase && strokeId != pointsStrokeId))) {
+            finishStroke();
+        }
+        if (pointCount == 0) {
+            pointsErase = erase;
+            pointsWidth = w;
+            pointsArgb = argb;
+            pointsStrokeId = strokeId;
+        }
+        for (int i = 0; i < n; i++) {
+            if (pointCount > 0 && points[2 * pointCount - 2] == xs[i] && points[2 * pointCount - 1] == ys[i]) {
+                continue;
+            }
+            if (2 * pointCount + 2 > points.length) {
+                points = Arrays.copyOf(points, points.length * 2);
+            }
+            points[2 * pointCount] = xs[i];
+            points[2 * pointCount + 1] = ys[i];
+            pointCount++;
+        }
+    }
+
+    private void finishStroke() {
+        if (pointCount > 0) {
+            strokes.add(new Stroke(pointsErase, pointsWidth, pointsArgb, Arrays.copyOf(points, 2 * pointCount)));
+            pointCount = 0;
+        }
+    }
+
+    /**
+     * Reemplaza {@code count} trazos desde {@code at} (deshacer y rehacer).
+     */
+    void replaceStrokes(int at, int count, List<Stroke> with) {
+        finishStroke();
+        strokes.subList(at, at + count).clear();
+        strokes.addAll(at, with);
+    }
+
+    // Todos los subcaminos van en el mismo sentido para que el clip
+    // (regla NON_ZERO) sea la unión de las piezas.
+    private static void addSegment(GraphicsContext gc, double ax, double ay, double bx, double by, double r) {
+        double dx = bx - ax, dy = by - ay;
+        double len = Math.hypot(dx, dy);
+        if (len == 0) {
+            return;
+        }
+        double nx = -dy / len * r, ny = dx / len * r;
+        gc.moveTo(ax + nx, ay + ny);
+        gc.lineTo(ax - nx, ay - ny);
+        gc.lineTo(bx - nx, by - ny);
+        gc.lineTo(bx + nx, by + ny);
+        gc.closePath();
+    }
+
+    private static final int DISC_SIDES = 16;
+
+    private static void addDisc(GraphicsContext gc, double cx, double cy, double r) {
+        gc.moveTo(cx + r, cy);
+        for (int k = 1; k < DISC_SIDES; k++) {
+            double a = 2 * Math.PI * k / DISC_SIDES;
+            gc.lineTo(cx + r * Math.cos(a), cy + r * Math.sin(a));
+        }
+        gc.closePath();
+    }
+
+    /**
+     * Borra un rectángulo. Solo toca teselas que existen.
+     */
+    public void clearRect(double x, double y, double w, double h) {
+        forTiles(x, y, x + w, y + h, false, t -> t.gc.clearRect(x, y, w, h));
+        erased.mark(x, y, w, h);
+    }
+
+    public void clear() {
+        if (recorded != null) {
+            for (Map.Entry<Long, Tile> e : tiles.entrySet()) {
+                capture(e.getKey(), e.getValue());
+            }
+            for (Map.Entry<Long, Supplier<byte[]>> e : pending.entrySet()) {
+                recorded.putIfAbsent(e.getKey(), e.getValue().get());
+            }
+            strokesRemoved.addAll(strokes.subList(0, strokesFrom));
+            strokesFrom = 0;
+        }
+        pointCount = 0;
+        strokes.clear();
+        pending.clear();
+        tiles.clear();
+        getChildren().clear();
+        erased.clear();
+    }
+
+    /**
+     * Libera las teselas borradas que quedaron totalmente transparentes.
+     * Conviene llamarlo al terminar un gesto de goma.
+     */
+    public void releaseEmptyTiles() {
+        if (erased.isEmpty()) {
+            return;
+        }
+        int[] px = new int[TILE * TILE];
+        erased.forEachTile((x, y, w, h) -> {
+            Tile t = tiles.get(key(x / TILE, y / TILE));
+            if (t == null) {
+                return;
+            }
+            read(t, px);
+            for (int p : px) {
+                if ((p >>> 24) != 0) {
+                    return;
+                }
+            }
+            tiles.remove(key(x / TILE, y / TILE));
+            getChildren().remove(t.canvas);
+        });
+        erased.clear();
+    }
+
+    /**
+     * Gira o espeja la pintura junto con la imagen (ver {@link Orientation}).
+     * Cada tesela se reorienta entera y se escribe en las teselas nuevas que
+     * cubre. Se gira la imagen completa, no solo la ventana, así un recorte
+     * anterior se puede seguir deshaciendo.
+     */
+    public void orient(int op) {
+        materializeAll();
+        int ow = (int) Math.ceil(fullWidth);
+        int oh = (int) Math.ceil(fullHeight);
+        int[] view = Orientation.mapRect((int) Math.round(viewX), (int) Math.round(viewY),
+                (int) Math.round(width), (int) Math.round(height), ow, oh, op);
+        Map<Long, Tile> old = new HashMap<>(tiles);
+        tiles.clear();
+        getChildren().clear();
+        finishStroke();
+        strokes.replaceAll(st -> st.oriented(op, fullWidth, fullHeight));
+        if (Orientation.swapsAxes(op)) {
+            setSize(fullHeight, fullWidth);
+        } else {
+            setSize(fullWidth, fullHeight);
+        }
+        setView(view[0], view[1], view[2], view[3]);
+        int nw = (int) Math.ceil(fullWidth);
+        int nh = (int) Math.ceil(fullHeight);
+
+        for (Map.Entry<Long, Tile> e : old.entrySet()) {
+            long k = e.getKey();
+            int x = col(k) * TILE;
+            int y = row(k) * TILE;
+            int[] px = Orientation.apply(pixels(e.getValue()), TILE, TILE, op);
+            int[] d = Orientation.mapRect(x, y, TILE, TILE, ow, oh, op);
+
+            // el bloque puede caer sobre hasta cuatro teselas nuevas
+            int x0 = Math.max(0, d[0]), y0 = Math.max(0, d[1]);
+            int x1 = Math.min(nw, d[0] + TILE), y1 = Math.min(nh, d[1] + TILE);
+            for (int ty = y0 / TILE * TILE; ty < y1; ty += TILE) {
+                for (int tx = x0 / TILE * TILE; tx < x1; tx += TILE) {
+                    int cx0 = Math.max(x0, tx), cy0 = Math.max(y0, ty);
+                    int cx1 = Math.min(x1, tx + TILE), cy1 = Math.min(y1, ty + TILE);
+                    if (cx0 >= cx1 || cy0 >= cy1) {
+                        continue;
+                    }
+                    Tile t = tiles.get(key(tx / TILE, ty / TILE));
+                    if (t == null) {
+                        t = new Tile(tx, ty);
+                        tiles.put(key(tx / TILE, ty / TILE), t);
+                        getChildren().add(t.canvas);
+                    }
+                    t.gc.getPixelWriter().setPixels(cx0 - tx, cy0 - ty, cx1 - cx0, cy1 - cy0,
+                            PixelFormat.getIntArgbInstance(), px, (cy0 - d[1]) * TILE + (cx0 - d[0]), TILE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Empieza a grabar una edición: cada tesela se guarda comprimida la
+     * primera vez que se toca.
+     */
+    public void beginEdit() {
+        recorded = new HashMap<>();
+        finishStroke();
+        strokesFrom = strokes.size();
+        strokesRemoved = new ArrayList<>();
+    }
+
+    /**
+     * Termina la edición y devuelve el comando para deshacerla, o null si
+     * no se tocó nada. Solo guarda las teselas tocadas, antes y después.
+     */
+    public Command endEdit() {
+        Map<Long, byte[]> before = recorded;
+        recorded = null;
+        if (before == null) {
+            return null;
+        }
+        finishStroke();
+        List<Stroke> added = new ArrayList<>(strokes.subList(strokesFrom, strokes.size()));
+        if (before.isEmpty()) {
+            // no cambió ningún píxel (goma sobre nada): tampoco los trazos
+            replaceStrokes(strokesFrom, added.size(), strokesRemoved);
+            return null;
+        }
+        Map<Long, byte[]> after = new HashMap<>();
+        for (Long k : before.keySet()) {
+            Tile t = tiles.get(k);
+            after.put(k, t == null ? null : pack(t));
+        }
+        return new PaintEdit(this, before, after, strokesFrom, strokesRemoved, added);
+    }
+
+    /**
+     * Deja las teselas indicadas como estaban (null = sin pintar).
+     */
+    void restoreTiles(Map<Long, byte[]> state) {
+        for (Map.Entry<Long, byte[]> e : state.entrySet()) {
+            long k = e.getKey();
+            pending.remove(k);
+            if (e.getValue() != null) {
+                put(k, e.getValue());
+                continue;
+            }
+            Tile t = tiles.remove(k);
+            if (t != null) {
+                getChildren().remove(t.canvas);
+            }
+        }
+    }
+
+    // Escribe una tesela comprimida, creándola si no existe
+    private Tile put(long k, byte[] packed) {
+        Tile t = tiles.get(k);
+        if (t == null) {
+            t = new Tile(col(k) * TILE, row(k) * TILE);
+            tiles.put(k, t);
+            getChildren().add(t.canvas);
+            cull(t);
+        }
+        // el PixelWriter escribe en píxeles del canvas, sin transformación
+        t.gc.getPixelWriter().setPixels(0, 0, TILE, TILE, PixelFormat.getIntArgbInstance(),
+                PixelCodec.unpack(packed, TILE * TILE), 0, TILE);
+        return t;
+    }
+
+    /**
+     * Reemplaza la pintura por la de un proyecto: teselas comprimidas (se
+     * descomprimen al mostrarlas) y los trazos que la hicieron.
+     */
+    public void load(Map<Long, Supplier<byte[]>> packed, List<Stroke> journal) {
+        clear();
+        pending.putAll(packed);
+        strokes.addAll(journal);
+        refreshVisible();
+    }
+
+    /**
+     * Las teselas con algo pintado, comprimidas, para guardar el proyecto.
+     * Las que siguen sin mostrarse se copian sin descomprimir y desde ahí
+     * quedan en memoria: ya no dependen del archivo del que venían, que se
+     * puede cerrar y reemplazar.
+     */
+    public Map<Long, byte[]> packedTiles() {
+        Map<Long, byte[]> out = new HashMap<>();
+        for (Map.Entry<Long, Supplier<byte[]>> e : pending.entrySet()) {
+            byte[] b = e.getValue().get();
+            out.put(e.getKey(), b);
+            e.setValue(() -> b);
+        }
+        for (Map.Entry<Long, Tile> e : tiles.entrySet()) {
+            int[] px = pixels(e.getValue());
+            for (int p : px) {
+                if ((p >>> 24) != 0) {
+                    out.put(e.getKey(), PixelCodec.pack(px));
+                    break;
+                }
+            }
+        }
+        return out;
+    }
+
+    public static int tileSize() {
+        return TILE;
+    }
+
+    private void capture(long k, Tile t) {
+        if (recorded != null && !recorded.containsKey(k)) {
+            recorded.put(k, t == null ? null : pack(t));
+        }
+    }
+
+    private static byte[] pack(Tile t) {
+        return PixelCodec.pack(pixels(t));
+    }
+
+    private static int[] pixels(Tile t) {
+        int[] px = new int[TILE * TILE];
+        read(t, px);
+        return px;
+    }
+
+    // Node.snapshot de un nodo oculto sale transparente: una tesela fuera
+    // de la vista (ver cull) se muestra solo mientras se la lee
+    private static void read(Tile t, int[] px) {
+        boolean hidden = !t.canvas.isVisible();
+        if (hidden) {
+            t.canvas.setVisible(true);
+        }
+        try {
+            SnapshotParameters sp = new SnapshotParameters();
+            sp.setFill(Color.TRANSPARENT);
+            t.canvas.snapshot(sp, null).getPixelReader()
+                    .getPixels(0, 0, TILE, TILE, PixelFormat.getIntArgbInstance(), px, 0, TILE);
+        } finally {
+            if (hidden) {
+                t.canvas.setVisible(false);
+            }
+        }
+    }
+
+    /**
+     * ¿Hay alguna tesela pintada que toque esta zona?
+     */
+    public boolean intersects(Bounds b) {
+        Bounds local = parentToLocal(b);
+        if (!getClip().getBoundsInLocal().intersects(local)) {
+            return false;
+        }
+        for (Tile t : tiles.values()) {
+            if (t.canvas.getBoundsInParent().intersects(local)) {
+                return true;
+            }
+        }
+        for (Long k : pending.keySet()) {
+            if (local.intersects(col(k) * TILE, row(k) * TILE, TILE, TILE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private interface TileAction {
+
+        void run(Tile t);
+    }
+
+    private void forTiles(double x0, double y0, double x1, double y1, boolean create, TileAction action) {
+        // solo dentro de la ventana visible
+        x0 = Math.max(x0, viewX);
+        y0 = Math.max(y0, viewY);
+        x1 = Math.min(x1, viewX + width - 1);
+        y1 = Math.min(y1, viewY + height - 1);
+        if (x0 > x1 || y0 > y1) {
+            return;
+        }
+        int c0 = (int) Math.floor(x0 / TILE);
+        int r0 = (int) Math.floor(y0 / TILE);
+        int c1 = (int) Math.floor(x1 / TILE);
+        int r1 = (int) Math.floor(y1 / TILE);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                long k = key(c, r);
+                Tile t = materialize(k);
+                if (t == null && !create) {
+                    continue;
+                }
+                capture(k, t);
+                if (t == null) {
+                    t = new Tile(c * TILE, r * TILE);
+                    tiles.put(k, t);
+                    getChildren().add(t.canvas);
+                    cull(t);
+                }
+                action.run(t);
+            }
+        }
+    }
+
+    private static long key(int col, int row) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+
+    private static int col(long k) {
+        return (int) k;
+    }
+
+    private static int row(long k) {
+        return (int) (k >> 32);
+    }
+}
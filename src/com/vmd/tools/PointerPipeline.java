@@ -0,0 +1,122 @@
+package com.vmd.tools;
+
+import com.vmd.perf.Metrics;
+import java.util.Arrays;
+import javafx.animation.AnimationTimer;
+
+/**
+ * Acumula las muestras del puntero y las entrega una vez por pulso de
+ * JavaFX, en lugar de hacer el trabajo en cada MouseEvent.
+ *
+ * Con {@code keepLast} el último punto de cada lote se repite como primero
+ * del siguiente, para que los trazos queden continuos entre pulsos.
+ *
+ * Con una métrica, cada lote registra la latencia desde su primera muestra
+ * hasta que terminó de dibujarse.
+ */
+public class PointerPipeline {
+
+    @FunctionalInterface
+    public interface Sink {
+
+        /**
+         * @param xs    coordenadas x (solo las primeras {@code count})
+         * @param ys    coordenadas y
+         * @param count cantidad de muestras del lote
+         */
+        void flush(double[] xs, double[] ys, int count);
+    }
+
+    private final boolean keepLast;
+    private final Sink sink;
+    private final String metric;
+    private long firstPending = -1;     // nanoTime de la muestra más vieja sin entregar
+
+    private double[] xs = new double[64];
+    private double[] ys = new double[64];
+    private int count = 0;
+    private boolean running = false;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            flush();
+        }
+    };
+
+    public PointerPipeline(boolean keepLast, Sink sink) {
+        this(keepLast, sink, null);
+    }
+
+    /**
+     * @param metric nombre en {@link Metrics} para la latencia (null = no se mide)
+     */
+    public PointerPipeline(boolean keepLast, Sink sink, String metric) {
+        this.keepLast = keepLast;
+        this.sink = sink;
+        this.metric = metric;
+    }
+
+    /**
+     * Empieza un gesto nuevo descartando lo pendiente.
+     */
+    public void begin(double x, double y) {
+        count = 0;
+        firstPending = -1;
+        append(x, y);
+        if (!running) {
+            timer.start();
+            running = true;
+        }
+    }
+
+    public void add(double x, double y) {
+        if (!running) {
+            begin(x, y);
+            return;
+        }
+        append(x, y);
+    }
+
+    /**
+     * Entrega lo pendiente y detiene el timer hasta el próximo gesto.
+     */
+    public void end() {
+        flush();
+        timer.stop();
+        running = false;
+        count = 0;
+    }
+
+    private void append(double x, double y) {
+        if (count == xs.length) {
+            xs = Arrays.copyOf(xs, count * 2);
+            ys = Arrays.copyOf(ys, count * 2);
+        }
+        xs[count] = x;
+        ys[count] = y;
+        count++;
+        if (firstPending < 0) {
+            firstPending = System.nanoTime();
+        }
+    }
+
+    private void flush() {
+        int min = keepLast ? 2 : 1;
+        if (count < min) {
+            return;
+        }
+        sink.flush(xs, ys, count);
+        if (metric != null && firstPending >= 0) {
+            Metrics.record(metric, System.nanoTime() - firstPending);
+        }
+        firstPending = -1;
+        if (keepLast) {
+            xs[0] = xs[count - 1];
+            ys[0] = ys[count - 1];
+            count = 1;
+        } else {
+            count = 0;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.vmd.tools;
 
+import com.vmd.history.History;
+import com.vmd.history.ValueCommand;
 import javafx.beans.binding.DoubleBinding;
 import javafx.geometry.Insets;
 import javafx.scene.control.Button;
@@ -12,27 +14,32 @@ public class RotateTool {
     private final ImageView baseView;
     private final Pane layers;
     private final HBox toolbar;
+    private final History history;
+    private final Orienter orienter;
 
-    private int angle = 0;
     private boolean visible = false;
 
-    public RotateTool(ImageView baseView, Pane layers) {
+    public RotateTool(ImageView baseView, Pane layers, History history, Orienter orienter) {
         this.baseView = baseView;
         this.layers = layers;
+        this.history = history;
+        this.orienter = orienter;
 
         // Botones
         Button btnLeft  = new Button("⟲ 90°");
         Button btnRight = new Button("⟳ 90°");
         Button btnReset = new Button("Reset");
+        Button btnApply = new Button("Aplicar");
         Button btnClose = new Button("✕");
 
         // Acciones
         btnLeft.setOnAction(e -> rotateLeft());
         btnRight.setOnAction(e -> rotateRight());
         btnReset.setOnAction(e -> resetRotation());
+        btnApply.setOnAction(e -> orienter.apply());
         btnClose.setOnAction(e -> hide());
 
-        toolbar = new HBox(8, btnLeft, btnRight, btnReset, btnClose);
+        toolbar = new HBox(8, btnLeft, btnRight, btnReset, btnApply, btnClose);
         toolbar.setPadding(new Insets(8));
         toolbar.setStyle("-fx-background-color: rgba(30,30,30,0.85);"
                        + "-fx-background-radius: 10;"
@@ -44,6 +51,7 @@ public class RotateTool {
         btnLeft.setStyle(btnStyle);
         btnRight.setStyle(btnStyle);
         btnReset.setStyle(btnStyle);
+        btnApply.setStyle(btnStyle);
         btnClose.setStyle("-fx-text-fill: white; -fx-background-color: #b02a37; -fx-background-radius: 8;");
 
         DoubleBinding centerX = layers.widthProperty().subtract(toolbar.widthProperty()).divide(2);
@@ -73,18 +81,30 @@ public class RotateTool {
         if (visible) hide(); else show();
     }
 
+    // el ángulo vive en baseView: al aplicar, Orienter lo vuelve a 0
+    private int angle() {
+        return (((int) Math.round(baseView.getRotate()) % 360) + 360) % 360;
+    }
+
     private void rotateRight() {
-        angle = (angle + 90) % 360;
-        baseView.setRotate(angle);
+        changeAngle((angle() + 90) % 360);
     }
 
     private void rotateLeft() {
-        angle = (angle - 90 + 360) % 360;
-        baseView.setRotate(angle);
+        changeAngle((angle() - 90 + 360) % 360);
     }
 
     private void resetRotation() {
-        angle = 0;
-        baseView.setRotate(angle);
+        changeAngle(0);
+    }
+
+    private void changeAngle(int a) {
+        int before = angle();
+        setAngle(a);
+        history.push(new ValueCommand<>(null, this::setAngle, before, a));
+    }
+
+    private void setAngle(int a) {
+        baseView.setRotate(a);
     }
 }
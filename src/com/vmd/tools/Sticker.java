@@ -0,0 +1,54 @@
+package com.vmd.tools;
+
+import javafx.geometry.Bounds;
+import javafx.scene.image.ImageView;
+
+/**
+ * Un sticker: posición, ancho y orden. El ImageView solo está en la escena
+ * mientras el sticker cae dentro del área visible.
+ */
+final class Sticker {
+
+    final String url;
+    final double aspect;    // alto / ancho
+    final ImageView view = new ImageView();
+
+    double x, y, width;
+    int z;
+
+    Sticker(String url, double aspect) {
+        this.url = url;
+        this.aspect = aspect;
+        view.setPreserveRatio(true);
+        view.setUserData(this);
+    }
+
+    double height() {
+        return width * aspect;
+    }
+
+    boolean contains(double px, double py) {
+        return px >= x && py >= y && px < x + width && py < y + height();
+    }
+
+    boolean intersects(Bounds b) {
+        return x < b.getMaxX() && y < b.getMaxY() && x + width > b.getMinX() && y + height() > b.getMinY();
+    }
+
+    void sync() {
+        view.setTranslateX(x);
+        view.setTranslateY(y);
+        view.setFitWidth(width);
+    }
+
+    // Posición y tamaño, para deshacer
+    double[] state() {
+        return new double[]{x, y, width};
+    }
+
+    void setState(double[] s) {
+        x = s[0];
+        y = s[1];
+        width = s[2];
+    }
+}
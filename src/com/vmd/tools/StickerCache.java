@@ -0,0 +1,172 @@
+package com.vmd.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javafx.scene.image.Image;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Imágenes de stickers compartidas, por ruta y tamaño.
+ *
+ * Cada imagen se guarda en variantes reducidas de ancho potencia de dos
+ * (como mipmaps), así todos los stickers iguales usan la misma textura y
+ * de una resolución parecida a la que se muestran. Las usadas hace poco se
+ * retienen hasta {@link #STRONG_BYTES}; el resto queda con referencias
+ * blandas y el GC las suelta si hace falta memoria.
+ */
+class StickerCache {
+
+    private static final long STRONG_BYTES = 64L * 1024 * 1024;
+    private static final int MIN_WIDTH = 64;
+
+    private final Map<Key, Ref> soft = new HashMap<>();
+    private final ReferenceQueue<Image> cleared = new ReferenceQueue<>();
+    private final LinkedHashMap<Key, Image> recent = new LinkedHashMap<>(32, 0.75f, true);
+    private long recentBytes = 0;
+
+    // ancho y alto originales, para no pedir variantes más grandes que el archivo
+    private final Map<String, int[]> sizes = new HashMap<>();
+
+    /**
+     * Imagen de {@code url} para mostrarla a {@code displayWidth} píxeles, o
+     * null si no se puede leer.
+     */
+    Image get(String url, double displayWidth) {
+        int[] size = sizeOf(url);
+        if (size == null) {
+            return null;
+        }
+        int w = variantWidth(displayWidth, size[0]);
+        Key k = new Key(url, w);
+
+        purge();
+        Image img = recent.get(k);
+        if (img == null) {
+            Ref r = soft.get(k);
+            img = r == null ? null : r.get();
+        }
+        if (img == null) {
+            img = w >= size[0]
+                    ? new Image(url, false)
+                    : new Image(url, w, 0, true, true, false);
+            if (img.isError()) {
+                return null;
+            }
+            soft.put(k, new Ref(k, img, cleared));
+        }
+        keep(k, img);
+        return img;
+    }
+
+    // La variante más chica que alcanza para el ancho pedido
+    static int variantWidth(double displayWidth, int originalWidth) {
+        int w = MIN_WIDTH;
+        while (w < displayWidth && w < originalWidth) {
+            w <<= 1;
+        }
+        return Math.min(w, originalWidth);
+    }
+
+    private void keep(Key k, Image img) {
+        if (recent.put(k, img) == null) {
+            recentBytes += bytesOf(img);
+        }
+        Iterator<Map.Entry<Key, Image>> it = recent.entrySet().iterator();
+        while (recentBytes > STRONG_BYTES && it.hasNext()) {
+            recentBytes -= bytesOf(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    private void purge() {
+        for (Object r; (r = cleared.poll()) != null;) {
+            Key k = ((Ref) r).key;
+            if (soft.get(k) == r) {
+                soft.remove(k);
+            }
+        }
+    }
+
+    private int[] sizeOf(String url) {
+        int[] s = sizes.get(url);
+        if (s != null) {
+            return s;
+        }
+        try (InputStream in = new URL(url).openStream();
+                ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> it = iis == null ? null : ImageIO.getImageReaders(iis);
+            if (it != null && it.hasNext()) {
+                ImageReader r = it.next();
+                try {
+                    r.setInput(iis, true, true);
+                    s = new int[]{r.getWidth(0), r.getHeight(0)};
+                } finally {
+                    r.dispose();
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(StickerCache.class.getName()).log(Level.WARNING, url, ex);
+        }
+        if (s == null) {
+            // ImageIO no conoce el formato; JavaFX lo decodifica entero
+            Image full = new Image(url, false);
+            if (full.isError()) {
+                return null;
+            }
+            s = new int[]{(int) full.getWidth(), (int) full.getHeight()};
+        }
+        sizes.put(url, s);
+        return s;
+    }
+
+    private static long bytesOf(Image img) {
+        return (long) img.getWidth() * (long) img.getHeight() * 4;
+    }
+
+    private static final class Ref extends SoftReference<Image> {
+
+        final Key key;
+
+        Ref(Key key, Image img, ReferenceQueue<Image> q) {
+            super(img, q);
+            this.key = key;
+        }
+    }
+
+    private static final class Key {
+
+        final String url;
+        final int width;
+
+        Key(String url, int width) {
+            this.url = url;
+            this.width = width;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return width == k.width && url.equals(k.url);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(url, width);
+        }
+    }
+}
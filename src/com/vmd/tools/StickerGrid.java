@@ -0,0 +1,116 @@
+package com.vmd.tools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javafx.geometry.Bounds;
+
+/**
+ * Índice espacial de stickers: una grilla uniforme de celdas de
+ * {@link #CELL} píxeles. Cada sticker se anota en las celdas que toca, así
+ * buscar en un punto o en un área solo mira los de esas celdas.
+ */
+class StickerGrid {
+
+    private static final int CELL = 256;
+
+    private final Map<Long, List<Sticker>> cells = new HashMap<>();
+    private final Map<Sticker, int[]> placed = new HashMap<>();   // celdas c0, r0, c1, r1
+
+    void add(Sticker s) {
+        int[] r = cellsOf(s.x, s.y, s.width, s.height());
+        placed.put(s, r);
+        for (int row = r[1]; row <= r[3]; row++) {
+            for (int col = r[0]; col <= r[2]; col++) {
+                cells.computeIfAbsent(key(col, row), k -> new ArrayList<>(4)).add(s);
+            }
+        }
+    }
+
+    void clear() {
+        cells.clear();
+        placed.clear();
+    }
+
+    void remove(Sticker s) {
+        int[] r = placed.remove(s);
+        if (r == null) {
+            return;
+        }
+        for (int row = r[1]; row <= r[3]; row++) {
+            for (int col = r[0]; col <= r[2]; col++) {
+                List<Sticker> l = cells.get(key(col, row));
+                if (l != null) {
+                    l.remove(s);
+                    if (l.isEmpty()) {
+                        cells.remove(key(col, row));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Hay que llamarlo cada vez que un sticker se mueve o cambia de tamaño.
+     */
+    void update(Sticker s) {
+        int[] now = cellsOf(s.x, s.y, s.width, s.height());
+        int[] was = placed.get(s);
+        if (was != null && was[0] == now[0] && was[1] == now[1] && was[2] == now[2] && was[3] == now[3]) {
+            return;
+        }
+        remove(s);
+        add(s);
+    }
+
+    /**
+     * El sticker de más arriba que contiene el punto, o null.
+     */
+    Sticker hit(double x, double y) {
+        List<Sticker> l = cells.get(key(Math.floorDiv((int) Math.floor(x), CELL), Math.floorDiv((int) Math.floor(y), CELL)));
+        Sticker top = null;
+        if (l != null) {
+            for (Sticker s : l) {
+                if (s.contains(x, y) && (top == null || s.z > top.z)) {
+                    top = s;
+                }
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Stickers que tocan el área.
+     */
+    Set<Sticker> query(Bounds b) {
+        Set<Sticker> out = new HashSet<>();
+        int[] r = cellsOf(b.getMinX(), b.getMinY(), b.getWidth(), b.getHeight());
+        for (int row = r[1]; row <= r[3]; row++) {
+            for (int col = r[0]; col <= r[2]; col++) {
+                List<Sticker> l = cells.get(key(col, row));
+                if (l == null) {
+                    continue;
+                }
+                for (Sticker s : l) {
+                    if (s.intersects(b)) {
+                        out.add(s);
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    private static int[] cellsOf(double x, double y, double w, double h) {
+        return new int[]{
+            Math.floorDiv((int) Math.floor(x), CELL), Math.floorDiv((int) Math.floor(y), CELL),
+            Math.floorDiv((int) Math.floor(x + w), CELL), Math.floorDiv((int) Math.floor(y + h), CELL)};
+    }
+
+    private static long key(int col, int row) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+}
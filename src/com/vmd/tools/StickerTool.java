@@ -1,13 +1,22 @@
 package com.vmd.tools;
 
+import com.vmd.edit.Step;
+import com.vmd.edit.Steps;
+import com.vmd.history.Command;
+import com.vmd.history.History;
+import com.vmd.history.ValueCommand;
+import com.vmd.viewer.ViewportAware;
+import javafx.geometry.Bounds;
 import javafx.geometry.Insets;
+import javafx.geometry.Point2D;
 import javafx.scene.Cursor;
+import javafx.scene.Node;
 import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Tooltip;
 import javafx.scene.image.Image;
-import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
@@ -15,14 +24,19 @@ import javafx.stage.FileChooser;
 
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
-public class StickerTool {
+public class StickerTool implements ViewportAware {
 
     private final Pane layers;                   // tu Pane principal "layers"
     private final Pane stickerLayer = new Pane();// capa de stickers (ImageViews)
     private final Runnable disablePan, enablePan;
+    private final History history;
 
     // Toolbar
     private final HBox toolbar;
@@ -33,12 +47,31 @@ public class StickerTool {
     private final Button btnClose     = new Button("✕");
 
     private boolean visible = false;
-    private ImageView selected = null;
+    private Sticker selected = null;
 
     private final Map<String, String> presetPaths = new HashMap<>();
 
-    public StickerTool(Pane layers, Runnable disablePan, Runnable enablePan) {
+    // las imágenes se comparten entre stickers iguales
+    private final StickerCache assets = new StickerCache();
+
+    // Modelo: todos los stickers, indexados por posición. En la escena solo
+    // están los que caen en el área visible.
+    private final List<Sticker> stickers = new ArrayList<>();
+    private final StickerGrid grid = new StickerGrid();
+    private Bounds viewport = null;     // null = sin recorte
+    private double scale = 1;           // para elegir la variante del caché
+    private boolean culling = true;
+    private int topZ = 0;
+
+    // el arrastre se aplica una vez por pulso con la última posición
+    private Sticker dragging = null;
+    private double dragOffX, dragOffY;
+    private double[] dragBefore = null;
+    private final PointerPipeline dragPipeline = new PointerPipeline(false, this::moveDragged);
+
+    public StickerTool(Pane layers, History history, Runnable disablePan, Runnable enablePan) {
         this.layers = layers;
+        this.history = history;
         this.disablePan = disablePan;
         this.enablePan  = enablePan;
 
@@ -67,6 +100,14 @@ public class StickerTool {
         stickerLayer.prefWidthProperty().bind(layers.widthProperty());
         stickerLayer.prefHeightProperty().bind(layers.heightProperty());
 
+        // Un solo juego de handlers para toda la capa; el sticker se busca
+        // en la grilla
+        stickerLayer.addEventHandler(MouseEvent.MOUSE_PRESSED, this::pressed);
+        stickerLayer.addEventHandler(MouseEvent.MOUSE_DRAGGED, this::dragged);
+        stickerLayer.addEventHandler(MouseEvent.MOUSE_RELEASED, this::released);
+        stickerLayer.addEventHandler(MouseEvent.MOUSE_CLICKED, this::clicked);
+        stickerLayer.addEventFilter(ScrollEvent.SCROLL, this::scrolled);
+
         if (!layers.getChildren().contains(stickerLayer)) {
             layers.getChildren().add(stickerLayer);
         }
@@ -74,6 +115,7 @@ public class StickerTool {
 
     public void show() {
         if (visible) return;
+        if (!layers.getChildren().contains(stickerLayer)) layers.getChildren().add(stickerLayer);
         if (!layers.getChildren().contains(toolbar)) layers.getChildren().add(toolbar);
         toolbar.setVisible(true);
 
@@ -99,8 +141,8 @@ public class StickerTool {
     private void addPreset() {
         String name = presets.getSelectionModel().getSelectedItem();
         if (name == null) return;
-        Image img = loadResource(presetPaths.get(name)); 
-        if (img != null) addSticker(img);
+        String url = resourceUrl(presetPaths.get(name));
+        if (url != null) addSticker(url);
     }
 
     private void addFromFile() {
@@ -110,95 +152,268 @@ public class StickerTool {
         );
         File f = fc.showOpenDialog(layers.getScene().getWindow());
         if (f != null) {
-            Image img = new Image(f.toURI().toString(), false);
-            addSticker(img);
+            addSticker(f.toURI().toString());
         }
     }
 
-    private Image loadResource(String resourcePath) {
+    private String resourceUrl(String resourcePath) {
         URL url = getClass().getResource(resourcePath);
         if (url == null) {
             System.err.println("No se encontró recurso: " + resourcePath);
             return null;
         }
-        return new Image(url.toExternalForm(), false); 
+        return url.toExternalForm();
     }
 
-    private void addSticker(Image img) {
-        ImageView iv = new ImageView(img);
-        iv.setPreserveRatio(true);
-
-
+    private void addSticker(String url) {
         double initW = Math.min(layers.getWidth() * 0.25, 240);
         if (initW <= 0) initW = 160; 
-        iv.setFitWidth(Math.min(initW, img.getWidth() > 0 ? img.getWidth() : initW));
+        Image img = assets.get(url, initW);
+        if (img == null) return;
 
-  
-        iv.setTranslateX((layers.getWidth() - widthOf(iv)) / 2);
-        iv.setTranslateY((layers.getHeight() - heightOf(iv)) / 2);
-        clampInside(iv);
+        Sticker st = new Sticker(url, img.getWidth() > 0 ? img.getHeight() / img.getWidth() : 1);
+        st.view.setImage(img);
+        st.view.setCursor(Cursor.OPEN_HAND);
+        st.width = Math.min(initW, img.getWidth() > 0 ? img.getWidth() : initW);
+        st.x = (layers.getWidth() - st.width) / 2;
+        st.y = (layers.getHeight() - st.height()) / 2;
+        clampInside(st);
 
-        iv.setCursor(Cursor.OPEN_HAND);
+        insert(st, stickers.size());
+        select(st);
 
+        history.push(Command.of(() -> removeSticker(st), () -> insert(st, stickers.size())));
+    }
 
-        iv.setOnMousePressed(e -> {
-            if (e.getButton() == MouseButton.PRIMARY) {
-                select(iv);
-                iv.setCursor(Cursor.CLOSED_HAND);
-                iv.setUserData(new double[]{e.getX(), e.getY()}); // offset interno
-                e.consume();
-            }
-        });
+    // ===== Eventos de la capa =====
 
-        iv.setOnMouseReleased(e -> { iv.setCursor(Cursor.OPEN_HAND); e.consume(); });
+    private Sticker hit(MouseEvent e) {
+        Point2D p = stickerLayer.sceneToLocal(e.getSceneX(), e.getSceneY());
+        return grid.hit(p.getX(), p.getY());
+    }
 
-        iv.setOnMouseDragged(e -> {
-            if (e.getButton() == MouseButton.PRIMARY) {
-                double[] off = (double[]) iv.getUserData();
-                iv.setTranslateX(iv.getTranslateX() + (e.getX() - off[0]));
-                iv.setTranslateY(iv.getTranslateY() + (e.getY() - off[1]));
-                clampInside(iv);
-                e.consume();
-            }
-        });
+    private void pressed(MouseEvent e) {
+        if (e.getButton() != MouseButton.PRIMARY) return;
+        Sticker st = hit(e);
+        if (st == null) return;
+        select(st);
+        st.view.setCursor(Cursor.CLOSED_HAND);
+        Point2D p = stickerLayer.sceneToLocal(e.getSceneX(), e.getSceneY());
+        dragOffX = p.getX() - st.x;
+        dragOffY = p.getY() - st.y;
+        dragging = st;
+        dragBefore = st.state();
+        e.consume();
+    }
 
+    private void dragged(MouseEvent e) {
+        if (dragging == null || e.getButton() != MouseButton.PRIMARY) return;
+        Point2D p = stickerLayer.sceneToLocal(e.getSceneX(), e.getSceneY());
+        dragPipeline.add(p.getX(), p.getY());
+        e.consume();
+    }
 
-        iv.addEventFilter(ScrollEvent.SCROLL, e -> {
-            double factor = (e.getDeltaY() > 0) ? 1.10 : 0.90;
-            double minW = 48;                                    
-            double maxW = Math.max(96, layers.getWidth() * 0.60); 
-            double newW = clamp(iv.getFitWidth() * factor, minW, maxW);
-            iv.setFitWidth(newW);
-            clampInside(iv);
-            e.consume();
-        });
+    private void released(MouseEvent e) {
+        if (dragging == null) return;
+        dragPipeline.end();
+        Sticker st = dragging;
+        dragging = null;
+        st.view.setCursor(Cursor.OPEN_HAND);
+        pushState(null, st, dragBefore);
+        e.consume();
+    }
 
+    private void clicked(MouseEvent e) {
+        if (e.getClickCount() != 2) return;
+        Sticker st = hit(e);
+        if (st != null) {
+            st.z = ++topZ;
+            st.view.toFront();
+        }
+    }
 
-        iv.setOnMouseClicked(e -> { if (e.getClickCount() == 2) iv.toFront(); });
+    private void scrolled(ScrollEvent e) {
+        Point2D p = stickerLayer.sceneToLocal(e.getSceneX(), e.getSceneY());
+        Sticker st = grid.hit(p.getX(), p.getY());
+        if (st == null) return;
+        double[] before = st.state();
+        double factor = (e.getDeltaY() > 0) ? 1.10 : 0.90;
+        double minW = 48;                                    
+        double maxW = Math.max(96, layers.getWidth() * 0.60); 
+        st.width = clamp(st.width * factor, minW, maxW);
+        clampInside(st);
+        changed(st);
+        pushState(st, st, before); // los pasos de rueda seguidos se juntan
+        e.consume();
+    }
 
-        stickerLayer.getChildren().add(iv);
-        select(iv);
+    private void moveDragged(double[] xs, double[] ys, int n) {
+        if (dragging == null) return;
+        dragging.x = xs[n - 1] - dragOffX;
+        dragging.y = ys[n - 1] - dragOffY;
+        clampInside(dragging);
+        changed(dragging);
+    }
+
+    // ===== Modelo =====
+
+    private void insert(Sticker st, int index) {
+        stickers.add(Math.min(index, stickers.size()), st);
+        if (st.z == 0) st.z = ++topZ;   // al deshacer un borrado conserva su lugar
+        grid.add(st);
+        changed(st);
+    }
+
+    private void removeSticker(Sticker st) {
+        if (selected == st) clearSelection();
+        stickers.remove(st);
+        grid.remove(st);
+        stickerLayer.getChildren().remove(st.view);
+    }
+
+    // Refleja en la vista y el índice un cambio de posición o tamaño
+    private void changed(Sticker st) {
+        grid.update(st);
+        st.sync();
+        refreshImage(st);
+        boolean inView = !culling || viewport == null || st.intersects(viewport);
+        boolean shown = st.view.getParent() == stickerLayer;
+        if (inView && !shown) {
+            addInOrder(st);
+        } else if (!inView && shown) {
+            stickerLayer.getChildren().remove(st.view);
+        }
+    }
+
+    // Los hijos de la capa quedan ordenados por z
+    private void addInOrder(Sticker st) {
+        List<Node> children = stickerLayer.getChildren();
+        int i = children.size();
+        while (i > 0 && zOf(children.get(i - 1)) > st.z) {
+            i--;
+        }
+        children.add(i, st.view);
+    }
+
+    private static int zOf(Node n) {
+        Object s = n.getUserData();
+        return s instanceof Sticker ? ((Sticker) s).z : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Los stickers como pasos de la receta, de abajo hacia arriba.
+     */
+    public List<Step> recipeSteps() {
+        List<Sticker> sorted = new ArrayList<>(stickers);
+        sorted.sort(Comparator.comparingInt(st -> st.z));
+        List<Step> out = new ArrayList<>();
+        for (Sticker st : sorted) {
+            out.add(new Steps.Sticker(st.url, st.x, st.y, st.width));
+        }
+        return out;
+    }
+
+    /**
+     * Agrega los stickers de un proyecto, sin pasar por el historial.
+     */
+    public void load(List<Steps.Sticker> list) {
+        if (!layers.getChildren().contains(stickerLayer)) {
+            layers.getChildren().add(stickerLayer);
+        }
+        for (Steps.Sticker s : list) {
+            Image img = assets.get(s.url, s.width);
+            if (img == null) continue;
+            Sticker st = new Sticker(s.url, img.getWidth() > 0 ? img.getHeight() / img.getWidth() : 1);
+            st.view.setImage(img);
+            st.view.setCursor(Cursor.OPEN_HAND);
+            st.x = s.x;
+            st.y = s.y;
+            st.width = s.width;
+            insert(st, stickers.size());
+        }
+    }
+
+    /**
+     * Quita todos los stickers (imagen nueva).
+     */
+    public void clear() {
+        clearSelection();
+        stickers.clear();
+        grid.clear();
+        stickerLayer.getChildren().clear();
+    }
+
+    /**
+     * Área visible en coordenadas de {@code layers}; solo los stickers que
+     * la tocan quedan en la escena, con la variante que pide la escala.
+     */
+    @Override
+    public void setViewport(Bounds visible, double scale) {
+        viewport = visible;
+        this.scale = scale;
+        refreshVisible();
+    }
+
+    /**
+     * Sin recorte todos los stickers quedan en la escena (por ejemplo,
+     * mientras se exporta).
+     */
+    public void setCulling(boolean on) {
+        culling = on;
+        refreshVisible();
+    }
+
+    private void refreshVisible() {
+        List<Sticker> in = new ArrayList<>(!culling || viewport == null ? stickers : grid.query(viewport));
+        in.sort(Comparator.comparingInt(st -> st.z));
+        List<Node> views = new ArrayList<>(in.size());
+        for (Sticker st : in) {
+            refreshImage(st);
+            views.add(st.view);
+        }
+        stickerLayer.getChildren().setAll(views);
+    }
+
+    // Cambia a la variante del caché que corresponde al tamaño en pantalla;
+    // sin recorte (exportando) al tamaño en la imagen
+    private void refreshImage(Sticker st) {
+        Image img = assets.get(st.url, culling ? st.width * scale : st.width);
+        if (img != null && img != st.view.getImage()) {
+            st.view.setImage(img);
+        }
+    }
+
+    private void pushState(Object key, Sticker st, double[] before) {
+        if (before == null) return;
+        double[] after = st.state();
+        if (Arrays.equals(before, after)) return;
+        history.push(new ValueCommand<>(key, s -> {
+            st.setState(s);
+            changed(st);
+        }, before, after));
     }
 
     // ===== Util =====
-    private void select(ImageView iv) {
-        if (selected == iv) return;
+    private void select(Sticker st) {
+        if (selected == st) return;
         clearSelection();
-        selected = iv;
-        selected.setStyle("-fx-effect: dropshadow(gaussian, rgba(0,0,0,0.6), 12, 0, 0, 2);");
+        selected = st;
+        selected.view.setStyle("-fx-effect: dropshadow(gaussian, rgba(0,0,0,0.6), 12, 0, 0, 2);");
     }
 
     private void clearSelection() {
         if (selected != null) {
-            selected.setStyle(null);
+            selected.view.setStyle(null);
             selected = null;
         }
     }
 
     private void deleteSelected() {
         if (selected != null) {
-            stickerLayer.getChildren().remove(selected);
-            selected = null;
+            Sticker st = selected;
+            int index = stickers.indexOf(st);
+            removeSticker(st);
+            history.push(Command.of(() -> insert(st, index), () -> removeSticker(st)));
         }
     }
 
@@ -206,37 +421,11 @@ public class StickerTool {
         return Math.max(min, Math.min(max, v));
     }
 
-    private static double widthOf(ImageView iv) {
-        return iv.getFitWidth(); 
-    }
-
-    private static double heightOf(ImageView iv) {
-        Image img = iv.getImage();
-        double iw = img.getWidth();
-        double ih = img.getHeight();
-        if (iw <= 0 || ih <= 0) return iv.getFitWidth(); 
-        return iv.getFitWidth() * (ih / iw);
-    }
-
-    private void clampInside(ImageView iv) {
-        double w = widthOf(iv);
-        double h = heightOf(iv);
-
-        double minX = 0;
-        double minY = 0;
-        double maxX = Math.max(0, layers.getWidth()  - w);
-        double maxY = Math.max(0, layers.getHeight() - h);
-
-        double x = iv.getTranslateX();
-        double y = iv.getTranslateY();
-
-        if (x < minX) x = minX;
-        if (y < minY) y = minY;
-        if (x > maxX) x = maxX;
-        if (y > maxY) y = maxY;
-
-        iv.setTranslateX(x);
-        iv.setTranslateY(y);
+    private void clampInside(Sticker st) {
+        double maxX = Math.max(0, layers.getWidth()  - st.width);
+        double maxY = Math.max(0, layers.getHeight() - st.height());
+        st.x = clamp(st.x, 0, maxX);
+        st.y = clamp(st.y, 0, maxY);
     }
 
     public Pane getStickerLayer() { return stickerLayer; }
@@ -0,0 +1,22 @@
+package com.vmd.tools;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Una etiqueta de texto; (x, y) es el origen de la línea base.
+ */
+final class TextLabel {
+
+    String text;
+    double size;
+    Color color;
+    double x, y;
+
+    TextLabel(String text, double size, Color color, double x, double y) {
+        this.text = text;
+        this.size = size;
+        this.color = color;
+        this.x = x;
+        this.y = y;
+    }
+}
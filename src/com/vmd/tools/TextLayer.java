@@ -0,0 +1,175 @@
+package com.vmd.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import javafx.geometry.Bounds;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import javafx.scene.transform.Scale;
+
+/**
+ * Capa de etiquetas de texto. Todas se dibujan juntas en un Canvas del
+ * tamaño del área visible (en píxeles de pantalla), a partir de los textos
+ * rasterizados de {@link GlyphCache}. Solo la etiqueta que se está
+ * editando o arrastrando es un nodo {@link Text} de verdad.
+ *
+ * Para exportar ({@code setBatched(false)}) todas pasan a ser nodos, así
+ * la captura de cualquier zona las incluye.
+ */
+class TextLayer extends Pane {
+
+    private final GlyphCache glyphs = new GlyphCache();
+    private final List<TextLabel> labels = new ArrayList<>();
+    private final Canvas canvas = new Canvas();
+    private final Scale canvasScale = new Scale();
+    private final Text live = new Text();
+    private TextLabel active = null;
+    private boolean batched = true;
+
+    private Bounds viewport = null;
+    private double scale = 1;
+
+    TextLayer() {
+        setPickOnBounds(false);
+        canvas.setMouseTransparent(true);
+        canvas.getTransforms().add(canvasScale);
+        getChildren().add(canvas);
+    }
+
+    List<TextLabel> labels() {
+        return labels;
+    }
+
+    void add(int index, TextLabel l) {
+        labels.add(Math.min(index, labels.size()), l);
+        redraw();
+    }
+
+    void remove(TextLabel l) {
+        labels.remove(l);
+        if (active == l) {
+            setActive(null);
+        }
+        redraw();
+    }
+
+    void clear() {
+        labels.clear();
+        setActive(null);
+    }
+
+    /**
+     * La etiqueta de más arriba que contiene el punto, o null.
+     */
+    TextLabel hit(double x, double y) {
+        for (int i = labels.size() - 1; i >= 0; i--) {
+            TextLabel l = labels.get(i);
+            GlyphCache.Run r = run(l);
+            if (x >= l.x + r.minX && x <= l.x + r.minX + r.width
+                    && y >= l.y + r.minY && y <= l.y + r.minY + r.height) {
+                return l;
+            }
+        }
+        return null;
+    }
+
+    GlyphCache.Run run(TextLabel l) {
+        return glyphs.get(l.text, l.size, l.color, GlyphCache.scaleFor(scale));
+    }
+
+    /**
+     * Saca una etiqueta del lote y la muestra como nodo (null = ninguna).
+     */
+    void setActive(TextLabel l) {
+        active = l;
+        getChildren().remove(live);
+        if (l != null) {
+            sync(live, l);
+            getChildren().add(live);
+        }
+        redraw();
+    }
+
+    TextLabel getActive() {
+        return active;
+    }
+
+    /**
+     * Avisa que cambió una etiqueta (posición, texto o estilo).
+     */
+    void changed(TextLabel l) {
+        if (l == active) {
+            // solo se mueve el nodo; el lote no cambia
+            sync(live, l);
+        } else {
+            redraw();
+        }
+    }
+
+    void setViewport(Bounds visible, double scale) {
+        this.viewport = visible;
+        this.scale = scale;
+        redraw();
+    }
+
+    void setBatched(boolean on) {
+        batched = on;
+        redraw();
+    }
+
+    void redraw() {
+        getChildren().retainAll(canvas, live);
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        if (!batched) {
+            canvas.setWidth(0);
+            canvas.setHeight(0);
+            for (TextLabel l : labels) {
+                if (l != active) {
+                    Text t = new Text();
+                    sync(t, l);
+                    getChildren().add(t);
+                }
+            }
+            live.toFront();
+            return;
+        }
+        if (viewport == null || viewport.getWidth() <= 0 || viewport.getHeight() <= 0) {
+            return;
+        }
+
+        // el canvas cubre el área visible con un píxel por píxel de pantalla
+        canvas.setLayoutX(viewport.getMinX());
+        canvas.setLayoutY(viewport.getMinY());
+        canvas.setWidth(Math.ceil(viewport.getWidth() * scale));
+        canvas.setHeight(Math.ceil(viewport.getHeight() * scale));
+        canvasScale.setX(1 / scale);
+        canvasScale.setY(1 / scale);
+
+        gc.setTransform(1, 0, 0, 1, 0, 0);
+        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        gc.setTransform(scale, 0, 0, scale, -viewport.getMinX() * scale, -viewport.getMinY() * scale);
+        for (TextLabel l : labels) {
+            if (l == active) {
+                continue;
+            }
+            GlyphCache.Run r = run(l);
+            double x = l.x + r.minX, y = l.y + r.minY;
+            if (x > viewport.getMaxX() || y > viewport.getMaxY()
+                    || x + r.width < viewport.getMinX() || y + r.height < viewport.getMinY()) {
+                continue;
+            }
+            gc.drawImage(r.image, x, y, r.width, r.height);
+        }
+    }
+
+    private static void sync(Text t, TextLabel l) {
+        t.setText(l.text);
+        t.setFont(Font.font(l.size));
+        t.setFill(l.color);
+        t.setX(l.x);
+        t.setY(l.y);
+    }
+}
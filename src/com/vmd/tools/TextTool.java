@@ -1,20 +1,31 @@
 package com.vmd.tools;
 
+import com.vmd.edit.Step;
+import com.vmd.edit.Steps;
+import com.vmd.history.Command;
+import com.vmd.history.History;
+import com.vmd.history.ValueCommand;
+import com.vmd.pixels.Pixels;
+import com.vmd.viewer.ViewportAware;
+import java.util.ArrayList;
+import java.util.List;
+import javafx.event.EventHandler;
 import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
+import javafx.scene.Node;
 import javafx.scene.control.*;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
-import javafx.scene.text.Font;
-import javafx.scene.text.Text;
 
-public class TextTool {
+public class TextTool implements ViewportAware {
 
     private final Pane layers;
     private final ImageView baseView;
     private final Runnable disablePanZoom, enablePanZoom;
+    private final History history;
 
     private final ToolBar toolbar = new ToolBar();
     private final ColorPicker colorPicker = new ColorPicker(Color.WHITE);
@@ -22,11 +33,27 @@ public class TextTool {
     private final Button btnAdd = new Button("Agregar");
     private final Button btnDelete = new Button("Eliminar");
 
-    private Text selected = null;
+    // todas las etiquetas se dibujan en lote; la seleccionada es un nodo vivo
+    private final TextLayer textLayer = new TextLayer();
     private boolean visible = false;
 
-    public TextTool(Pane layers, ImageView baseView, Runnable disablePanZoom, Runnable enablePanZoom) {
+    // el arrastre se aplica una vez por pulso con la última posición
+    private TextLabel dragging = null;
+    private double[] dragStartText;
+    private Point2D dragStartMouse;
+    private final PointerPipeline dragPipeline = new PointerPipeline(false, this::moveDragged);
+
+    // un solo juego de filtros sobre layers mientras la herramienta está
+    // visible: al consumir en la captura no llega a los handlers de layers
+    // (el paneo del visor), que están en el mismo nodo
+    private final EventHandler<MouseEvent> onPress = this::pressed;
+    private final EventHandler<MouseEvent> onDrag = this::dragged;
+    private final EventHandler<MouseEvent> onRelease = this::released;
+    private final EventHandler<MouseEvent> onClick = this::clicked;
+
+    public TextTool(Pane layers, ImageView baseView, History history, Runnable disablePanZoom, Runnable enablePanZoom) {
         this.layers = layers;
+        this.history = history;
         this.baseView = baseView;
         this.disablePanZoom = disablePanZoom;
         this.enablePanZoom = enablePanZoom;
@@ -39,20 +66,32 @@ public class TextTool {
 
         btnAdd.setOnAction(e -> enterAddMode());
         btnDelete.setOnAction(e -> {
-            if (selected != null) {
-                layers.getChildren().remove(selected);
-                selected = null;
+            TextLabel l = textLayer.getActive();
+            if (l != null) {
+                int index = textLayer.labels().indexOf(l);
+                textLayer.remove(l);
+                history.push(Command.of(() -> textLayer.add(index, l), () -> textLayer.remove(l)));
             }
         });
+
+        textLayer.setMouseTransparent(true);
+        layers.getChildren().add(textLayer);
     }
 
     public void show() {
         if (visible) return;
+        if (!layers.getChildren().contains(textLayer)) {
+            layers.getChildren().add(textLayer);
+        }
         if (!layers.getChildren().contains(toolbar)) {
             layers.getChildren().add(toolbar);
             toolbar.setLayoutX(10);
             toolbar.setLayoutY(10);
         }
+        layers.addEventFilter(MouseEvent.MOUSE_PRESSED, onPress);
+        layers.addEventFilter(MouseEvent.MOUSE_DRAGGED, onDrag);
+        layers.addEventFilter(MouseEvent.MOUSE_RELEASED, onRelease);
+        layers.addEventFilter(MouseEvent.MOUSE_CLICKED, onClick);
         disablePanZoom.run();
         visible = true;
         layers.requestFocus();
@@ -62,6 +101,11 @@ public class TextTool {
         if (!visible) return;
         layers.getChildren().remove(toolbar);
         layers.setOnMouseClicked(null); // salir de modo agregar
+        layers.removeEventFilter(MouseEvent.MOUSE_PRESSED, onPress);
+        layers.removeEventFilter(MouseEvent.MOUSE_DRAGGED, onDrag);
+        layers.removeEventFilter(MouseEvent.MOUSE_RELEASED, onRelease);
+        layers.removeEventFilter(MouseEvent.MOUSE_CLICKED, onClick);
+        textLayer.setActive(null);
         enablePanZoom.run();
         visible = false;
     }
@@ -70,94 +114,197 @@ public class TextTool {
         if (visible) hide(); else show();
     }
 
+    /**
+     * Área visible (coordenadas de {@code layers}) y escala de pantalla;
+     * las etiquetas se dibujan solo ahí.
+     */
+    @Override
+    public void setViewport(Bounds visible, double scale) {
+        textLayer.setViewport(visible, scale);
+    }
+
+    /**
+     * Las etiquetas como pasos de la receta, en orden de dibujo.
+     */
+    public List<Step> recipeSteps() {
+        List<Step> out = new ArrayList<>();
+        for (TextLabel l : textLayer.labels()) {
+            out.add(new Steps.Caption(l.text, l.x, l.y, l.size, Pixels.argb(l.color)));
+        }
+        return out;
+    }
+
+    /**
+     * Agrega las etiquetas de un proyecto, sin pasar por el historial.
+     */
+    public void load(List<Steps.Caption> list) {
+        if (!layers.getChildren().contains(textLayer)) {
+            layers.getChildren().add(textLayer);
+        }
+        for (Steps.Caption c : list) {
+            textLayer.add(textLayer.labels().size(), new TextLabel(c.text, c.size, Pixels.color(c.argb), c.x, c.y));
+        }
+    }
+
+    /**
+     * Quita todas las etiquetas (imagen nueva).
+     */
+    public void clear() {
+        textLayer.clear();
+    }
+
+    /**
+     * Sin lote, cada etiqueta es un nodo (por ejemplo, mientras se exporta).
+     */
+    public void setBatched(boolean on) {
+        textLayer.setBatched(on);
+    }
+
     private void enterAddMode() {
         layers.setOnMouseClicked(e -> {
             if (e.getButton() != MouseButton.PRIMARY) return;
             if (!isInsideBase(e.getX(), e.getY())) return;
 
-            Text t = new Text("Texto");
-            t.setFont(Font.font(sizePicker.getValue()));
-            t.setFill(colorPicker.getValue());
-            t.setX(e.getX());
-            t.setY(e.getY());
-
-            // seleccionar + doble clic para editar
-            t.setOnMouseClicked(ev -> {
-                if (ev.getButton() == MouseButton.PRIMARY) {
-                    selected = t;
-                    if (ev.getClickCount() == 2) editText(t);
-                    ev.consume();
-                }
-            });
-
-            final double[] startText = new double[2];   
-            final Point2D[] startMouse = new Point2D[1];
-
-            t.setOnMousePressed(ev -> {
-                if (!ev.isPrimaryButtonDown()) return;
-    
-                startText[0] = t.getX();
-                startText[1] = t.getY();
-
-                startMouse[0] = layers.sceneToLocal(ev.getSceneX(), ev.getSceneY());
-                disablePanZoom.run();  
-                ev.consume();
-            });
-
-            t.setOnMouseDragged(ev -> {
-                Point2D cur = layers.sceneToLocal(ev.getSceneX(), ev.getSceneY());
-                double dx = cur.getX() - startMouse[0].getX();
-                double dy = cur.getY() - startMouse[0].getY();
-                t.setX(startText[0] + dx);
-                t.setY(startText[1] + dy);
-                clampInside(t);
-                ev.consume();
-            });
-
-            t.setOnMouseReleased(ev -> {
-                enablePanZoom.run();
-                ev.consume();
-            });
-
-            layers.getChildren().add(t);
-            selected = t;
-
+            TextLabel l = new TextLabel("Texto", sizePicker.getValue(), colorPicker.getValue(), e.getX(), e.getY());
+            textLayer.add(textLayer.labels().size(), l);
+            textLayer.setActive(l);
+            history.push(Command.of(() -> textLayer.remove(l), () -> textLayer.add(textLayer.labels().size(), l)));
 
             layers.setOnMouseClicked(null);
         });
     }
 
-    private void editText(Text t) {
-        TextInputDialog d = new TextInputDialog(t.getText());
+    private Point2D local(MouseEvent e) {
+        return layers.sceneToLocal(e.getSceneX(), e.getSceneY());
+    }
+
+    // Los filtros ven también lo que va a la barra de herramientas
+    private boolean onToolbar(MouseEvent e) {
+        for (Object n = e.getTarget(); n instanceof Node; n = ((Node) n).getParent()) {
+            if (n == toolbar) return true;
+        }
+        return false;
+    }
+
+    private void pressed(MouseEvent e) {
+        if (!e.isPrimaryButtonDown() || onToolbar(e)) return;
+        Point2D p = local(e);
+        TextLabel l = textLayer.hit(p.getX(), p.getY());
+        if (l == null) {
+            textLayer.setActive(null);
+            return;
+        }
+        if (textLayer.getActive() != l) {
+            textLayer.setActive(l);
+        }
+        dragging = l;
+        dragStartText = new double[]{l.x, l.y};
+        dragStartMouse = p;
+        e.consume();
+    }
+
+    private void dragged(MouseEvent e) {
+        if (dragging == null) return;
+        Point2D cur = local(e);
+        dragPipeline.add(cur.getX(), cur.getY());
+        e.consume();
+    }
+
+    private void released(MouseEvent e) {
+        if (dragging == null) return;
+        dragPipeline.end();
+        TextLabel l = dragging;
+        dragging = null;
+        if (l.x != dragStartText[0] || l.y != dragStartText[1]) {
+            history.push(new ValueCommand<>(null, p -> {
+                l.x = p[0];
+                l.y = p[1];
+                textLayer.changed(l);
+            }, dragStartText, new double[]{l.x, l.y}));
+        }
+        e.consume();
+    }
+
+    private void clicked(MouseEvent e) {
+        if (e.getButton() != MouseButton.PRIMARY || e.getClickCount() != 2 || onToolbar(e)) return;
+        Point2D p = local(e);
+        TextLabel l = textLayer.hit(p.getX(), p.getY());
+        if (l != null) {
+            editText(l);
+            e.consume();
+        }
+    }
+
+    private void moveDragged(double[] xs, double[] ys, int n) {
+        if (dragging == null) return;
+        dragging.x = dragStartText[0] + xs[n - 1] - dragStartMouse.getX();
+        dragging.y = dragStartText[1] + ys[n - 1] - dragStartMouse.getY();
+        clampInside(dragging);
+        textLayer.changed(dragging);
+    }
+
+    private void editText(TextLabel l) {
+        textLayer.setActive(l);
+        TextInputDialog d = new TextInputDialog(l.text);
         d.setTitle("Editar texto");
         d.setHeaderText(null);
         d.setContentText("Nuevo texto:");
         d.showAndWait().ifPresent(newTxt -> {
-            t.setText(newTxt.isEmpty() ? "Texto" : newTxt);
-            t.setFont(Font.font(sizePicker.getValue()));
-            t.setFill(colorPicker.getValue());
-            clampInside(t);
+            Look before = new Look(l);
+            l.text = newTxt.isEmpty() ? "Texto" : newTxt;
+            l.size = sizePicker.getValue();
+            l.color = colorPicker.getValue();
+            clampInside(l);
+            textLayer.changed(l);
+            history.push(new ValueCommand<>(null, look -> {
+                look.applyTo(l);
+                textLayer.changed(l);
+            }, before, new Look(l)));
         });
     }
 
+    // Contenido y estilo de una etiqueta, para deshacer
+    private static final class Look {
+
+        final String text;
+        final double size;
+        final Color color;
+        final double x, y;
+
+        Look(TextLabel l) {
+            text = l.text;
+            size = l.size;
+            color = l.color;
+            x = l.x;
+            y = l.y;
+        }
+
+        void applyTo(TextLabel l) {
+            l.text = text;
+            l.size = size;
+            l.color = color;
+            l.x = x;
+            l.y = y;
+        }
+    }
+
     private boolean isInsideBase(double x, double y) {
         Bounds b = baseView.getBoundsInParent();
         return x >= b.getMinX() && x <= b.getMaxX() && y >= b.getMinY() && y <= b.getMaxY();
     }
 
-    private void clampInside(Text t) {
+    private void clampInside(TextLabel l) {
         Bounds b = baseView.getBoundsInParent();
-        double w = t.getLayoutBounds().getWidth();
-        double h = t.getLayoutBounds().getHeight();
+        GlyphCache.Run r = textLayer.run(l);
 
         double minX = b.getMinX();
-        double minY = b.getMinY() + h; 
-        double maxX = b.getMaxX() - w;
+        double minY = b.getMinY() + r.height; 
+        double maxX = b.getMaxX() - r.width;
         double maxY = b.getMaxY();
 
-        if (t.getX() < minX) t.setX(minX);
-        if (t.getX() > maxX) t.setX(maxX);
-        if (t.getY() < minY) t.setY(minY);
-        if (t.getY() > maxY) t.setY(maxY);
+        if (l.x < minX) l.x = minX;
+        if (l.x > maxX) l.x = maxX;
+        if (l.y < minY) l.y = minY;
+        if (l.y > maxY) l.y = maxY;
     }
 }
@@ -0,0 +1,301 @@
+package com.vmd.viewer;
+
+import com.vmd.history.PixelCodec;
+import com.vmd.pixels.Pixels;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.function.LongPredicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Fuente que guarda en disco lo que decodifica otra, para no repetirlo la
+ * próxima vez que se abra el mismo archivo.
+ *
+ * Se guardan el preview y las teselas de la pirámide de
+ * {@link TiledImageLayer} (niveles por debajo del preview), a medida que
+ * se piden. Cada una se escribe al final del archivo comprimida con
+ * {@link PixelCodec}, solo si el {@link DiskTileCache} le hace lugar. Al
+ * leerla se comprueba que sus medidas sean las de la tesela que ocupa;
+ * una entrada dañada se vuelve a pedir a la fuente original, igual que las
+ * lecturas que no son una tesela de la pirámide.
+ *
+ * Formato: encabezado, tabla de posiciones (0 = todavía no está) y los
+ * datos ({@code int w, int h, int n, byte[n]} por entrada).
+ */
+public class CachedTileSource implements TileSource {
+
+    private static final int MAGIC = 0x564d4454;   // "VMDT"
+    private static final int VERSION = 2;
+
+    // magic, version, width, height, tile, levels, length, mtime, preview
+    private static final int HEADER = 6 * 4 + 3 * 8;
+    private static final int PREVIEW_AT = HEADER - 8;
+    private static final int ENTRY_HEADER = 3 * 4;
+
+    private final TileSource source;
+    private final File file;
+    private final LongPredicate reserve;
+    private final Runnable onClose;
+    private final FileChannel channel;
+    private final int width, height, levels;
+    private final int[] slotBase;       // primer slot de cada nivel
+    private final long[] slots;
+    private long previewAt;
+    private boolean closed = false;
+
+    /**
+     * {@code reserve} recibe los bytes de cada entrada nueva y dice si caben
+     * en el caché; si no, la entrada no se guarda.
+     */
+    CachedTileSource(File file, TileSource source, File original, LongPredicate reserve, Runnable onClose)
+            throws IOException {
+        this.file = file;
+        this.source = source;
+        this.reserve = reserve;
+        this.onClose = onClose;
+        this.width = source.getWidth();
+        this.height = source.getHeight();
+        this.levels = TiledImageLayer.levelFor(width, height);
+
+        slotBase = new int[levels + 1];
+        for (int l = 0; l < levels; l++) {
+            int span = TiledImageLayer.TILE << l;
+            slotBase[l + 1] = slotBase[l] + ((width + span - 1) / span) * ((height + span - 1) / span);
+        }
+        slots = new long[slotBase[levels]];
+
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            if (!load(original)) {
+                create(original);
+            }
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    // Lee encabezado y tabla; false si el archivo no sirve para esta imagen
+    private boolean load(File original) throws IOException {
+        long tableEnd = HEADER + slots.length * 8L;
+        if (channel.size() < tableEnd) {
+            return false;
+        }
+        ByteBuffer b = ByteBuffer.allocate((int) tableEnd).order(ByteOrder.nativeOrder());
+        readFully(b, 0);
+        b.flip();
+        if (b.getInt() != MAGIC || b.getInt() != VERSION || b.getInt() != width || b.getInt() != height
+                || b.getInt() != TiledImageLayer.TILE || b.getInt() != levels
+                || b.getLong() != original.length() || b.getLong() != original.lastModified()) {
+            return false;
+        }
+        previewAt = b.getLong();
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = b.getLong();
+        }
+        return true;
+    }
+
+    private void create(File original) throws IOException {
+        channel.truncate(0);
+        ByteBuffer b = ByteBuffer.allocate(HEADER + slots.length * 8).order(ByteOrder.nativeOrder());
+        b.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height)
+                .putInt(TiledImageLayer.TILE).putInt(levels)
+                .putLong(original.length()).putLong(original.lastModified()).putLong(0);
+        // la tabla queda en ceros
+        b.position(b.capacity());
+        b.flip();
+        writeFully(b, 0);
+        previewAt = 0;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public Image read(int x, int y, int w, int h, int subsampling) throws IOException {
+        int slot = slotOf(x, y, w, h, subsampling);
+        if (slot < 0) {
+            return source.read(x, y, w, h, subsampling);
+        }
+        long at;
+        synchronized (this) {
+            at = slots[slot];
+        }
+        int ew = (w + subsampling - 1) / subsampling;
+        int eh = (h + subsampling - 1) / subsampling;
+        if (at != 0) {
+            try {
+                return readEntry(at, ew, eh);
+            } catch (IOException ex) {
+                Logger.getLogger(CachedTileSource.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+        Image img = source.read(x, y, w, h, subsampling);
+        long pos = append(img, ew, eh);
+        if (pos != 0) {
+            synchronized (this) {
+                slots[slot] = pos;
+                writeLong(HEADER + slot * 8L, pos);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Preview guardado en una apertura anterior, o null.
+     */
+    public Image readPreview() throws IOException {
+        long at;
+        synchronized (this) {
+            at = previewAt;
+        }
+        if (at == 0) {
+            return null;
+        }
+        try {
+            return readEntry(at, previewSide(width), previewSide(height));
+        } catch (IOException ex) {
+            Logger.getLogger(CachedTileSource.class.getName()).log(Level.WARNING, null, ex);
+            return null;
+        }
+    }
+
+    public void storePreview(Image preview) throws IOException {
+        long pos = append(preview, previewSide(width), previewSide(height));
+        if (pos != 0) {
+            synchronized (this) {
+                previewAt = pos;
+                writeLong(PREVIEW_AT, pos);
+            }
+        }
+    }
+
+    // El preview es la imagen entera leída en el nivel {@code levels}
+    private int previewSide(int side) {
+        int s = 1 << levels;
+        return (side + s - 1) / s;
+    }
+
+    // Índice en la tabla si la región es justo una tesela de la pirámide
+    private int slotOf(int x, int y, int w, int h, int subsampling) {
+        if (Integer.bitCount(subsampling) != 1) {
+            return -1;
+        }
+        int level = Integer.numberOfTrailingZeros(subsampling);
+        if (level >= levels) {
+            return -1;
+        }
+        int span = TiledImageLayer.TILE << level;
+        if (x % span != 0 || y % span != 0
+                || w != Math.min(span, width - x) || h != Math.min(span, height - y)) {
+            return -1;
+        }
+        int cols = (width + span - 1) / span;
+        return slotBase[level] + (y / span) * cols + x / span;
+    }
+
+    // Lee una entrada de w × h; las medidas y el largo guardados se
+    // comprueban antes de reservar memoria para ella
+    private Image readEntry(long at, int w, int h) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(ENTRY_HEADER).order(ByteOrder.nativeOrder());
+        readFully(head, at);
+        head.flip();
+        int sw = head.getInt();
+        int sh = head.getInt();
+        int n = head.getInt();
+        if (sw != w || sh != h || n <= 0 || n > maxPacked(w * h) || at + ENTRY_HEADER + n > channel.size()) {
+            throw new IOException("Entrada dañada en el caché " + file.getName() + " (" + at + ")");
+        }
+        ByteBuffer data = ByteBuffer.allocate(n);
+        readFully(data, at + ENTRY_HEADER);
+        int[] px;
+        try {
+            px = PixelCodec.unpack(data.array(), w * h);
+        } catch (IllegalStateException ex) {
+            throw new IOException("Entrada dañada en el caché " + file.getName() + " (" + at + ")", ex);
+        }
+        WritableImage img = new WritableImage(w, h);
+        img.getPixelWriter().setPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), px, 0, w);
+        return img;
+    }
+
+    // Deflate nunca agranda más que unos bytes por bloque
+    private static int maxPacked(int pixels) {
+        return pixels * 4 + (pixels >> 8) + 64;
+    }
+
+    // Escribe la entrada al final y devuelve su posición, o 0 si no tiene
+    // las medidas esperadas o no cabe en el caché. La posición se publica
+    // después, así una entrada a medio escribir nunca queda en la tabla
+    private long append(Image img, int w, int h) throws IOException {
+        if ((int) img.getWidth() != w || (int) img.getHeight() != h) {
+            return 0;
+        }
+        byte[] packed = PixelCodec.pack(Pixels.read(img));
+        ByteBuffer b = ByteBuffer.allocate(ENTRY_HEADER + packed.length).order(ByteOrder.nativeOrder());
+        b.putInt(w).putInt(h).putInt(packed.length).put(packed);
+        b.flip();
+        synchronized (this) {
+            if (!reserve.test(b.remaining())) {
+                return 0;
+            }
+            long pos = channel.size();
+            writeFully(b, pos);
+            return pos;
+        }
+    }
+
+    private void writeLong(long pos, long value) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+        b.putLong(value).flip();
+        writeFully(b, pos);
+    }
+
+    private void readFully(ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) {
+            if (channel.read(b, pos + b.position()) < 0) {
+                throw new IOException("Caché truncado: " + file.getName());
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) {
+            channel.write(b, pos + b.position());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            source.close();
+        } finally {
+            channel.close();
+            onClose.run();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.vmd.viewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Carpeta con un {@link CachedTileSource} por imagen abierta, identificada
+ * por ruta, tamaño y fecha de modificación del archivo: si el archivo
+ * cambia, la entrada vieja deja de usarse y termina desalojada.
+ *
+ * El total se acota en bytes, al abrir y en cada tesela que se agrega: se
+ * borran las entradas cerradas usadas hace más tiempo (la fecha de
+ * modificación de cada una marca su último uso) y, si aun así no hay
+ * lugar, la tesela no se guarda.
+ */
+public final class DiskTileCache {
+
+    private static final long MAX_BYTES = 2L * 1024 * 1024 * 1024;
+    private static final String SUFFIX = ".tiles";
+
+    private static final DiskTileCache SHARED = new DiskTileCache(
+            new File(System.getProperty("user.home"), ".vmd" + File.separator + "tiles"), MAX_BYTES);
+
+    private final File dir;
+    private final long maxBytes;
+    private final Set<File> open = new HashSet<>();
+    private long total;     // según el último recorrido, más lo reservado
+    private boolean full;   // nada que desalojar hasta que se cierre una entrada
+
+    public DiskTileCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    public static DiskTileCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Envuelve la fuente de {@code file} con su entrada del caché. Devuelve
+     * null si no se puede usar (sin permisos, o la entrada ya está abierta
+     * por otra fuente); en ese caso se sigue sin caché.
+     */
+    public CachedTileSource open(File file, TileSource source) {
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("No se pudo crear " + dir.getAbsolutePath());
+            }
+            File entry = new File(dir, key(file) + SUFFIX);
+            synchronized (this) {
+                if (!open.add(entry)) {
+                    return null;
+                }
+            }
+            try {
+                entry.setLastModified(System.currentTimeMillis());
+                evict(maxBytes);
+                return new CachedTileSource(entry, source, file, this::reserve, () -> closed(entry));
+            } catch (IOException ex) {
+                closed(entry);
+                throw ex;
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(DiskTileCache.class.getName()).log(Level.WARNING, null, ex);
+            return null;
+        }
+    }
+
+    private synchronized void closed(File entry) {
+        open.remove(entry);
+        full = false;
+        entry.setLastModified(System.currentTimeMillis());
+    }
+
+    // Hace lugar para bytes nuevos de una entrada abierta
+    private synchronized boolean reserve(long bytes) {
+        if (total + bytes > maxBytes && !full) {
+            evict(maxBytes - bytes);
+            full = total + bytes > maxBytes;
+        }
+        if (total + bytes > maxBytes) {
+            return false;
+        }
+        total += bytes;
+        return true;
+    }
+
+    // Borra las entradas cerradas menos usadas hasta bajar de limit
+    private synchronized void evict(long limit) {
+        File[] entries = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (entries == null) {
+            return;
+        }
+        total = 0;
+        for (File f : entries) {
+            total += f.length();
+        }
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (File f : entries) {
+            if (total <= limit) {
+                break;
+            }
+            if (open.contains(f)) {
+                continue;
+            }
+            long len = f.length();
+            if (f.delete()) {
+                total -= len;
+            }
+        }
+    }
+
+    private static String key(File file) throws IOException {
+        String id = file.getCanonicalPath() + '\n' + file.length() + '\n' + file.lastModified();
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-1").digest(id.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(d.length * 2);
+            for (byte b : d) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+    }
+}
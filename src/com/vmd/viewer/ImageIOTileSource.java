@@ -0,0 +1,248 @@
+package com.vmd.viewer;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Fuente sobre un archivo que lee ImageIO.
+ *
+ * En los formatos que no se pueden leer por partes (JPEG, PNG: el lector
+ * decodifica desde la primera fila hasta la última de la región) cada
+ * tesela costaría decodificar todo lo que tiene encima. Por eso se
+ * decodifica una sola vez la franja de todo el ancho que cubre una fila
+ * de teselas y las teselas de esa fila se recortan de ella; se guardan
+ * las últimas franjas, hasta {@link #BANDS_MAX_BYTES}.
+ */
+public class ImageIOTileSource implements TileSource {
+
+    private static final long BANDS_MAX_BYTES = 64L * 1024 * 1024;
+
+    private final ImageInputStream in;
+    private final ImageReader reader;
+    private final int width, height;
+    private final boolean sequential;
+    private final List<Band> bands = new ArrayList<>();    // la más reciente primero
+    private long bandBytes = 0;
+    private boolean closed = false;
+
+    public ImageIOTileSource(File file) throws IOException {
+        in = ImageIO.createImageInputStream(file);
+        if (in == null) {
+            throw new IOException("No se pudo abrir: " + file.getAbsolutePath());
+        }
+        Iterator<ImageReader> it = ImageIO.getImageReaders(in);
+        if (!it.hasNext()) {
+            in.close();
+            throw new IOException("Formato no soportado: " + file.getName());
+        }
+        reader = it.next();
+        reader.setInput(in, false, true);
+        width = reader.getWidth(0);
+        height = reader.getHeight(0);
+        sequential = !reader.isRandomAccessEasy(0);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    // ImageReader no es thread-safe
+    @Override
+    public synchronized Image read(int x, int y, int w, int h, int subsampling) throws IOException {
+        // la franja toma las mismas columnas solo si x cae en la grilla del submuestreo
+        if (sequential && w < width && x % subsampling == 0) {
+            Band band = band(y, h, subsampling);
+            if (band != null) {
+                return band.slice(x / subsampling, (w + subsampling - 1) / subsampling);
+            }
+        }
+        return SwingFXUtils.toFXImage(readRegion(x, y, w, h, subsampling), null);
+    }
+
+    private BufferedImage readRegion(int x, int y, int w, int h, int subsampling) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(x, y, w, h));
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+    }
+
+    // Franja de todo el ancho para las filas (y, h), o null si es muy grande
+    private Band band(int y, int h, int subsampling) throws IOException {
+        for (int i = 0; i < bands.size(); i++) {
+            Band b = bands.get(i);
+            if (b.y == y && b.h == h && b.subsampling == subsampling) {
+                bands.add(0, bands.remove(i));
+                return b;
+            }
+        }
+        long bytes = 4L * ((width + subsampling - 1) / subsampling) * ((h + subsampling - 1) / subsampling);
+        if (bytes > BANDS_MAX_BYTES) {
+            return null;
+        }
+        BufferedImage bi = readRegion(0, y, width, h, subsampling);
+        Band b = new Band(y, h, subsampling, bi.getWidth(), bi.getHeight(),
+                bi.getRGB(0, 0, bi.getWidth(), bi.getHeight(), null, 0, bi.getWidth()));
+        bands.add(0, b);
+        bandBytes += bytes;
+        while (bandBytes > BANDS_MAX_BYTES) {
+            Band old = bands.remove(bands.size() - 1);
+            bandBytes -= 4L * old.argb.length;
+        }
+        return b;
+    }
+
+    /**
+     * Igual que {@link #read}, pero informa el progreso (0..1) y entrega
+     * copias parciales de lo decodificado cada cuarto del total.
+     */
+    public synchronized Image read(int x, int y, int w, int h, int subsampling,
+            DoubleConsumer progress, Consumer<Image> partial) throws IOException {
+        final double[] last = {0};
+        final int[] published = {0};
+
+        IIOReadProgressListener pl = new IIOReadProgressListener() {
+            @Override
+            public void imageProgress(ImageReader source, float percentageDone) {
+                last[0] = percentageDone / 100.0;
+                progress.accept(last[0]);
+            }
+
+            @Override
+            public void imageStarted(ImageReader source, int imageIndex) { }
+
+            @Override
+            public void imageComplete(ImageReader source) { progress.accept(1); }
+
+            @Override
+            public void sequenceStarted(ImageReader source, int minIndex) { }
+
+            @Override
+            public void sequenceComplete(ImageReader source) { }
+
+            @Override
+            public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) { }
+
+            @Override
+            public void thumbnailProgress(ImageReader source, float percentageDone) { }
+
+            @Override
+            public void thumbnailComplete(ImageReader source) { }
+
+            @Override
+            public void readAborted(ImageReader source) { }
+        };
+
+        IIOReadUpdateListener ul = new IIOReadUpdateListener() {
+            @Override
+            public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY,
+                    int width, int height, int periodX, int periodY, int[] bands) {
+                int quarter = (int) (last[0] * 4);
+                if (quarter > published[0] && quarter < 4) {
+                    published[0] = quarter;
+                    partial.accept(SwingFXUtils.toFXImage(theImage, null));
+                }
+            }
+
+            @Override
+            public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass,
+                    int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) { }
+
+            @Override
+            public void passComplete(ImageReader source, BufferedImage theImage) { }
+
+            @Override
+            public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass,
+                    int minPass, int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) { }
+
+            @Override
+            public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY,
+                    int width, int height, int periodX, int periodY, int[] bands) { }
+
+            @Override
+            public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) { }
+        };
+
+        reader.addIIOReadProgressListener(pl);
+        reader.addIIOReadUpdateListener(ul);
+        try {
+            // directo: las copias parciales tienen que ser de la región pedida
+            return SwingFXUtils.toFXImage(readRegion(x, y, w, h, subsampling), null);
+        } finally {
+            reader.removeIIOReadProgressListener(pl);
+            reader.removeIIOReadUpdateListener(ul);
+        }
+    }
+
+    /**
+     * Miniatura embebida en el archivo (JFIF), o null si no hay.
+     */
+    public synchronized Image readThumbnail() throws IOException {
+        if (!reader.readerSupportsThumbnails() || reader.getNumThumbnails(0) == 0) {
+            return null;
+        }
+        return SwingFXUtils.toFXImage(reader.readThumbnail(0, 0), null);
+    }
+
+    /**
+     * Corta la lectura en curso. Se puede llamar desde otro hilo.
+     */
+    public void abort() {
+        reader.abort();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        bands.clear();
+        reader.dispose();
+        in.close();
+    }
+
+    private static final class Band {
+
+        final int y, h, subsampling;
+        final int width, height;    // ya submuestreada
+        final int[] argb;
+
+        Band(int y, int h, int subsampling, int width, int height, int[] argb) {
+            this.y = y;
+            this.h = h;
+            this.subsampling = subsampling;
+            this.width = width;
+            this.height = height;
+            this.argb = argb;
+        }
+
+        Image slice(int x, int w) {
+            WritableImage img = new WritableImage(w, height);
+            img.getPixelWriter().setPixels(0, 0, w, height, PixelFormat.getIntArgbInstance(), argb, x, width);
+            return img;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.vmd.viewer;
+
+import com.vmd.perf.Metrics;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javafx.concurrent.Task;
+import javafx.scene.image.Image;
+
+/**
+ * Carga una imagen fuera del hilo de JavaFX.
+ *
+ * El valor de la tarea va pasando por versiones cada vez mejores del
+ * preview (miniatura embebida, decodificación parcial y preview completo)
+ * para que la ventana muestre algo cuanto antes. Al terminar, la fuente
+ * queda lista para {@link TiledImageLayer#setSource}; si se cancela o
+ * falla se cierra aquí.
+ *
+ * La fuente pasa por el {@link DiskTileCache}: si el archivo ya se abrió,
+ * el preview y las teselas vistas se mapean del disco sin decodificar.
+ */
+public class ImageLoadTask extends Task<Image> {
+
+    private final File file;
+    private volatile ImageIOTileSource decoder;
+    private volatile TileSource source;
+    private volatile boolean done = false;
+
+    public ImageLoadTask(File file) {
+        this.file = file;
+        updateTitle(file.getName());
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Fuente abierta; disponible desde que se publica el primer valor.
+     */
+    public TileSource getSource() {
+        return source;
+    }
+
+    @Override
+    protected Image call() throws Exception {
+        updateMessage("Abriendo " + file.getName());
+        updateProgress(-1, 1);
+
+        ImageIOTileSource dec = new ImageIOTileSource(file);
+        decoder = dec;
+        CachedTileSource cached = DiskTileCache.shared().open(file, dec);
+        TileSource src = cached != null ? cached : dec;
+        source = src;
+        if (isCancelled()) {
+            src.close();
+            return null;
+        }
+
+        try {
+            int w = src.getWidth();
+            int h = src.getHeight();
+
+            Image preview = cached == null ? null : cached.readPreview();
+            if (preview != null) {
+                updateProgress(1, 1);
+                return preview;
+            }
+
+            Image thumb = dec.readThumbnail();
+            if (thumb != null) {
+                updateValue(thumb);
+            }
+
+            updateMessage("Decodificando " + w + " × " + h);
+            int level = TiledImageLayer.levelFor(w, h);
+            long t0 = System.nanoTime();
+            preview = dec.read(0, 0, w, h, 1 << level,
+                    p -> updateProgress(p, 1),
+                    this::updateValue);
+            Metrics.record(Metrics.DECODE, System.nanoTime() - t0);
+            if (cached != null && !isCancelled()) {
+                cached.storePreview(preview);
+            }
+
+            updateProgress(1, 1);
+            return preview;
+        } finally {
+            done = true;
+            if (isCancelled()) {
+                src.close();
+            }
+        }
+    }
+
+    @Override
+    protected void cancelled() {
+        TileSource src = source;
+        if (src == null) {
+            return;
+        }
+        if (done) {
+            // call() ya terminó y nadie va a recoger la fuente
+            closeQuietly(src);
+        } else {
+            decoder.abort();
+        }
+    }
+
+    @Override
+    protected void failed() {
+        TileSource src = source;
+        if (src != null) {
+            closeQuietly(src);
+        }
+    }
+
+    private static void closeQuietly(TileSource src) {
+        try {
+            src.close();
+        } catch (IOException ex) {
+            Logger.getLogger(ImageLoadTask.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+}
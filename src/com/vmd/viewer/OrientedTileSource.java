@@ -0,0 +1,79 @@
+package com.vmd.viewer;
+
+import com.vmd.pixels.Orientation;
+import com.vmd.pixels.Pixels;
+import java.io.IOException;
+import javafx.scene.image.Image;
+
+/**
+ * Vista girada y/o espejada de otra fuente. Cada lectura pide a la fuente
+ * la región correspondiente y la reorienta con {@link Orientation#apply}.
+ */
+public class OrientedTileSource implements TileSource {
+
+    private final TileSource parent;
+    private final int op, inverse;
+
+    private OrientedTileSource(TileSource parent, int op) {
+        this.parent = parent;
+        this.op = op;
+        this.inverse = Orientation.inverse(op);
+    }
+
+    /**
+     * Orienta {@code src}; si ya estaba orientada se combinan en una sola
+     * vista en lugar de anidarlas.
+     */
+    public static TileSource of(TileSource src, int op) {
+        if (src instanceof OrientedTileSource) {
+            OrientedTileSource o = (OrientedTileSource) src;
+            op = Orientation.compose(o.op, op);
+            src = o.parent;
+        }
+        return op == Orientation.IDENTITY ? src : new OrientedTileSource(src, op);
+    }
+
+    /**
+     * Orientación total de {@code src} respecto de la imagen original,
+     * juntando las vistas orientadas de la cadena (los recortes no giran).
+     */
+    public static int orientationOf(TileSource src) {
+        int op = Orientation.IDENTITY;
+        while (true) {
+            if (src instanceof OrientedTileSource) {
+                OrientedTileSource o = (OrientedTileSource) src;
+                op = Orientation.compose(o.op, op);
+                src = o.parent;
+            } else if (src instanceof RegionTileSource) {
+                src = ((RegionTileSource) src).getParent();
+            } else {
+                return op;
+            }
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return Orientation.swapsAxes(op) ? parent.getHeight() : parent.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return Orientation.swapsAxes(op) ? parent.getWidth() : parent.getHeight();
+    }
+
+    @Override
+    public Image read(int x, int y, int w, int h, int subsampling) throws IOException {
+        int[] r = Orientation.mapRect(x, y, w, h, getWidth(), getHeight(), inverse);
+        Image piece = parent.read(r[0], r[1], r[2], r[3], subsampling);
+        int pw = (int) piece.getWidth();
+        int ph = (int) piece.getHeight();
+        int[] px = Orientation.apply(Pixels.read(piece), pw, ph, op);
+        return Orientation.swapsAxes(op) ? Pixels.toImage(px, ph, pw) : Pixels.toImage(px, pw, ph);
+    }
+
+    @Override
+    public void close() throws IOException {
+        parent.close();
+    }
+}
@@ -0,0 +1,57 @@
+package com.vmd.viewer;
+
+import java.io.IOException;
+import javafx.scene.image.Image;
+
+/**
+ * Vista recortada sobre otra fuente; no copia píxeles.
+ */
+public class RegionTileSource implements TileSource {
+
+    private final TileSource parent;
+    private final int offsetX, offsetY, width, height;
+
+    private RegionTileSource(TileSource parent, int x, int y, int w, int h) {
+        this.parent = parent;
+        this.offsetX = x;
+        this.offsetY = y;
+        this.width = w;
+        this.height = h;
+    }
+
+    /**
+     * Recorta {@code src}; un recorte de un recorte queda como uno solo
+     * sobre la fuente original.
+     */
+    public static TileSource of(TileSource src, int x, int y, int w, int h) {
+        if (src instanceof RegionTileSource) {
+            RegionTileSource r = (RegionTileSource) src;
+            return new RegionTileSource(r.parent, r.offsetX + x, r.offsetY + y, w, h);
+        }
+        return new RegionTileSource(src, x, y, w, h);
+    }
+
+    TileSource getParent() {
+        return parent;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public Image read(int x, int y, int w, int h, int subsampling) throws IOException {
+        return parent.read(offsetX + x, offsetY + y, w, h, subsampling);
+    }
+
+    @Override
+    public void close() throws IOException {
+        parent.close();
+    }
+}
@@ -0,0 +1,22 @@
+package com.vmd.viewer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import javafx.scene.image.Image;
+
+/**
+ * Fuente de píxeles que se puede leer por regiones y a menor resolución,
+ * sin decodificar la imagen completa.
+ */
+public interface TileSource extends Closeable {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Lee la región (x, y, w, h) en coordenadas de la imagen original,
+     * tomando uno de cada {@code subsampling} píxeles.
+     */
+    Image read(int x, int y, int w, int h, int subsampling) throws IOException;
+}
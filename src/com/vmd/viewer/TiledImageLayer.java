@@ -0,0 +1,549 @@
+package com.vmd.viewer;
+
+import com.vmd.pixels.PixelOp;
+import com.vmd.pixels.Pixels;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.geometry.Bounds;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.Pane;
+import javafx.util.Duration;
+
+/**
+ * Capa de teselas sobre el preview de {@code baseView}.
+ *
+ * La imagen se ve como una pirámide: el nivel L toma uno de cada 2^L
+ * píxeles. Solo se decodifican las teselas que caen dentro del área visible,
+ * al nivel que corresponde al zoom actual, y se guardan en un LRU acotado en
+ * bytes. Si el preview ya tiene resolución suficiente no se pide nada.
+ *
+ * Con el zoom lejos, o con un filtro ({@link #setFilter}), la capa muestra
+ * debajo de las teselas su propia versión del preview: reducida al nivel de
+ * detalle de la pantalla y filtrada; {@code baseView} queda transparente.
+ * El caché guarda las teselas sin filtrar.
+ */
+public class TiledImageLayer extends Pane implements ViewportAware {
+
+    public static final int TILE = 512;
+    public static final int PREVIEW_MAX = 2048;   // lado mayor del preview
+
+    private static final long CACHE_BYTES = 192L * 1024 * 1024;
+
+    private final ExecutorService decoder = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "tile-decoder");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final LinkedHashMap<TileKey, Image> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedBytes = 0;
+
+    private final Set<TileKey> pending = new HashSet<>();
+    private final Map<TileKey, ImageView> shown = new HashMap<>();
+    private volatile Set<TileKey> wanted = Collections.emptySet();
+
+    private TileSource source;
+    private int previewLevel = 0;
+    private int generation = 0;
+
+    private static final Duration IDLE = Duration.millis(300);
+    private static final int MAX_LOD = 6;
+
+    // El preview que se ve cuando baseView no alcanza: la región visible
+    // reducida a la escala de pantalla (nivel de detalle) y/o filtrada. Si
+    // no hace falta ninguna de las dos cosas se ve baseView tal cual.
+    private final ImageView lodPreview = new ImageView();
+    private ImageView preview;
+    private PixelOp filter;
+    private int filterVersion = 0;
+    private Bounds lastVisible;
+    private double lastScale = 1;
+    private int lod = -1;   // nivel que muestra lodPreview (-1 = ninguno)
+
+    // mips.get(k): la región del preview reducida 2^k veces
+    private Image mipSource;
+    private int[] mipRegion;
+    private final List<int[]> mips = new ArrayList<>();
+    private final List<int[]> mipSizes = new ArrayList<>();
+    private final Map<Integer, Image> mipImages = new HashMap<>();
+
+    // Mientras se ajusta el filtro solo se filtra el preview reducido, cuyo
+    // costo depende del tamaño en pantalla; tras IDLE sin cambios vuelven
+    // las teselas, filtradas en segundo plano.
+    private final PauseTransition idle = new PauseTransition(IDLE);
+    private boolean interactive = false;
+
+    public TiledImageLayer() {
+        setMouseTransparent(true);
+        setPickOnBounds(false);
+        lodPreview.setSmooth(true);
+        idle.setOnFinished(e -> settle());
+    }
+
+    /**
+     * El ImageView con el preview sin filtrar; se sigue cada vez que cambia.
+     */
+    public void setPreview(ImageView view) {
+        preview = view;
+        lodPreview.fitWidthProperty().bind(view.fitWidthProperty());
+        lodPreview.fitHeightProperty().bind(view.fitHeightProperty());
+        view.imageProperty().addListener((o, a, b) -> refilterPreview());
+        view.viewportProperty().addListener((o, a, b) -> refilterPreview());
+    }
+
+    // Parte del preview que se muestra (un recorte es un viewport): x, y, w, h
+    private int[] previewRegion(Image img) {
+        Rectangle2D vp = preview.getViewport();
+        if (vp == null) {
+            return new int[]{0, 0, (int) img.getWidth(), (int) img.getHeight()};
+        }
+        return new int[]{(int) vp.getMinX(), (int) vp.getMinY(), (int) vp.getWidth(), (int) vp.getHeight()};
+    }
+
+    public PixelOp getFilter() {
+        return filter;
+    }
+
+    /**
+     * Filtro de píxeles para el preview y las teselas (null = ninguno).
+     * Las teselas filtradas llegan un poco después; antes se ve el preview
+     * filtrado a resolución de pantalla.
+     */
+    public void setFilter(PixelOp f) {
+        filter = f;
+        refilterPreview();
+    }
+
+    private void refilterPreview() {
+        filterVersion++;
+        removeTiles();
+        if (filter == null) {
+            idle.stop();
+            interactive = false;
+            showPreview(true);
+            if (lastVisible != null) {
+                update(lastVisible, lastScale);
+            }
+            return;
+        }
+        interactive = true;
+        showPreview(true);
+        idle.playFromStart();
+    }
+
+    private void settle() {
+        interactive = false;
+        if (lastVisible != null) {
+            update(lastVisible, lastScale);
+        }
+    }
+
+    // Nivel del preview cuyo lado mayor todavía cubre el tamaño en pantalla
+    private int lodFor(Image img) {
+        int[] region = previewRegion(img);
+        int side = Math.max(region[2], region[3]);
+        double onScreen = Math.max(preview.getFitWidth(), preview.getFitHeight()) * lastScale;
+        int level = 0;
+        while (level < MAX_LOD && (side >> (level + 1)) >= onScreen) {
+            level++;
+        }
+        return level;
+    }
+
+    // Muestra el preview al nivel que corresponde a la escala actual; si el
+    // nivel no cambió no hace nada, salvo que se fuerce
+    private void showPreview(boolean force) {
+        Image img = preview == null ? null : preview.getImage();
+        int level = img == null ? -1 : lodFor(img);
+        if (filter == null && level == 0) {
+            level = -1;
+        }
+        if (!force && level == lod) {
+            return;
+        }
+        lod = level;
+        if (level < 0) {
+            getChildren().remove(lodPreview);
+            lodPreview.setImage(null);
+            if (preview != null) {
+                preview.setOpacity(1);
+            }
+            return;
+        }
+        int[] px = mip(img, level);
+        int w = mipSizes.get(level)[0];
+        int h = mipSizes.get(level)[1];
+        if (filter == null) {
+            lodPreview.setImage(mipImages.computeIfAbsent(level, k -> Pixels.toImage(px, w, h)));
+        } else if (interactive) {
+            int[] out = px.clone();
+            filter.apply(out, w, h);
+            lodPreview.setImage(Pixels.toImage(out, w, h));
+        } else {
+            // cambió el zoom con un filtro puesto: hasta que llegue se ve
+            // el nivel anterior estirado
+            final PixelOp f = filter;
+            final int version = filterVersion;
+            final int shownLevel = level;
+            final int[] out = px.clone();
+            decoder.submit(() -> {
+                f.apply(out, w, h);
+                Platform.runLater(() -> {
+                    if (version == filterVersion && lod == shownLevel) {
+                        lodPreview.setImage(Pixels.toImage(out, w, h));
+                    }
+                });
+            });
+        }
+        if (!getChildren().contains(lodPreview)) {
+            getChildren().add(0, lodPreview);
+        }
+        preview.setOpacity(0);
+    }
+
+    // La región del preview reducida 2^level veces; los niveles se arman
+    // a demanda y se descartan cuando cambia el preview o el recorte
+    private int[] mip(Image img, int level) {
+        int[] region = previewRegion(img);
+        if (img != mipSource || !Arrays.equals(region, mipRegion)) {
+            mipSource = img;
+            mipRegion = region;
+            mips.clear();
+            mipSizes.clear();
+            mipImages.clear();
+            mips.add(Pixels.read(img, region[0], region[1], region[2], region[3]));
+            mipSizes.add(new int[]{region[2], region[3]});
+        }
+        while (mips.size() <= level) {
+            int[] size = mipSizes.get(mips.size() - 1);
+            mips.add(Pixels.halve(mips.get(mips.size() - 1), size[0], size[1]));
+            mipSizes.add(new int[]{Math.max(1, size[0] / 2), Math.max(1, size[1] / 2)});
+        }
+        return mips.get(level);
+    }
+
+    // quita las teselas visibles, no el preview reducido
+    private void removeTiles() {
+        shown.clear();
+        getChildren().retainAll(lodPreview);
+    }
+
+    public TileSource getSource() {
+        return source;
+    }
+
+    public int getPreviewLevel() {
+        return previewLevel;
+    }
+
+    /**
+     * Cambia la fuente. El preview (el nivel {@link #levelFor} de la
+     * pirámide) lo muestra {@code baseView} de fondo.
+     */
+    public void setSource(TileSource src) {
+        clear();
+        closeSource();
+        source = src;
+        previewLevel = levelFor(src.getWidth(), src.getHeight());
+    }
+
+    /**
+     * Recorta la fuente actual sin volver a decodificarla.
+     */
+    public void crop(int x, int y, int w, int h) {
+        if (source == null) {
+            return;
+        }
+        clear();
+        // el preview recortado sigue siendo del mismo nivel
+        source = RegionTileSource.of(source, x, y, w, h);
+    }
+
+    /**
+     * Gira o espeja la fuente actual sin volver a decodificarla.
+     */
+    public void orient(int op) {
+        if (source == null) {
+            return;
+        }
+        clear();
+        source = OrientedTileSource.of(source, op);
+    }
+
+    /**
+     * Vuelve a una fuente que ya se usó (deshacer/rehacer un recorte). La
+     * actual no se cierra: la sigue referenciando el historial.
+     */
+    public void restore(TileSource src) {
+        if (src == source) {
+            return;
+        }
+        clear();
+        source = src;
+    }
+
+    public void clear() {
+        generation++;
+        wanted = Collections.emptySet();
+        pending.clear();
+        cache.clear();
+        cachedBytes = 0;
+        removeTiles();
+    }
+
+    public void dispose() {
+        clear();
+        closeSource();
+        decoder.shutdownNow();
+    }
+
+    private void closeSource() {
+        if (source == null) {
+            return;
+        }
+        try {
+            source.close();
+        } catch (IOException ex) {
+            Logger.getLogger(TiledImageLayer.class.getName()).log(Level.WARNING, null, ex);
+        }
+        source = null;
+    }
+
+    @Override
+    public void setViewport(Bounds visible, double scale) {
+        if (visible != null) {
+            update(parentToLocal(visible), scale);
+        }
+    }
+
+    /**
+     * Recalcula las teselas a mostrar.
+     *
+     * @param visible área visible en coordenadas de la imagen
+     * @param scale   escala actual (píxeles de pantalla por píxel de imagen)
+     */
+    public void update(Bounds visible, double scale) {
+        if (visible == null || scale <= 0) {
+            return;
+        }
+        lastVisible = visible;
+        lastScale = scale;
+        showPreview(false);
+        if (source == null || interactive) {
+            // mientras se ajusta un filtro alcanza con el preview
+            return;
+        }
+        int level = Math.min(previewLevel, Math.max(0, (int) Math.floor(Math.log(1 / scale) / Math.log(2))));
+        if (level >= previewLevel) {
+            // el preview alcanza
+            wanted = Collections.emptySet();
+            removeTiles();
+            return;
+        }
+
+        int span = TILE << level;
+        int w = source.getWidth();
+        int h = source.getHeight();
+        int c0 = Math.max(0, (int) Math.floor(visible.getMinX() / span));
+        int r0 = Math.max(0, (int) Math.floor(visible.getMinY() / span));
+        int c1 = Math.min((w - 1) / span, (int) Math.floor(visible.getMaxX() / span));
+        int r1 = Math.min((h - 1) / span, (int) Math.floor(visible.getMaxY() / span));
+
+        Set<TileKey> next = new HashSet<>();
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                next.add(new TileKey(level, c, r));
+            }
+        }
+        wanted = next;
+
+        // fuera lo que ya no se ve
+        Iterator<Map.Entry<TileKey, ImageView>> it = shown.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<TileKey, ImageView> e = it.next();
+            if (!next.contains(e.getKey())) {
+                getChildren().remove(e.getValue());
+                it.remove();
+            }
+        }
+
+        for (TileKey k : next) {
+            if (shown.containsKey(k)) {
+                continue;
+            }
+            Image img = cache.get(k);
+            if (img != null) {
+                showTile(k, img);
+            } else {
+                request(k);
+            }
+        }
+    }
+
+    private void request(TileKey k) {
+        if (!pending.add(k)) {
+            return;
+        }
+        final TileSource src = source;
+        final int gen = generation;
+        final int f = 1 << k.level;
+        final int span = TILE << k.level;
+        final int x = k.col * span;
+        final int y = k.row * span;
+        final int w = Math.min(span, src.getWidth() - x);
+        final int h = Math.min(span, src.getHeight() - y);
+        final PixelOp op = filter;
+        final int version = filterVersion;
+
+        decoder.submit(() -> {
+            Image img = null;
+            int[] px = null;
+            if (wanted.contains(k)) {
+                try {
+                    img = src.read(x, y, w, h, f);
+                    if (op != null) {
+                        px = Pixels.read(img);
+                        op.apply(px, (int) img.getWidth(), (int) img.getHeight());
+                    }
+                } catch (IOException ex) {
+                    Logger.getLogger(TiledImageLayer.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+            final Image result = img;
+            final int[] filteredPx = px;
+            Platform.runLater(() -> {
+                if (gen != generation) {
+                    return;
+                }
+                pending.remove(k);
+                if (result == null) {
+                    return;
+                }
+                put(k, result);
+                if (!wanted.contains(k) || shown.containsKey(k)) {
+                    return;
+                }
+                if (filteredPx != null && version == filterVersion) {
+                    addTile(k, Pixels.toImage(filteredPx, (int) result.getWidth(), (int) result.getHeight()));
+                } else {
+                    showTile(k, result);
+                }
+            });
+        });
+    }
+
+    // Muestra una tesela del caché; con filtro, se filtra en segundo plano
+    private void showTile(TileKey k, Image raw) {
+        if (filter == null) {
+            addTile(k, raw);
+            return;
+        }
+        if (!pending.add(k)) {
+            return;
+        }
+        final PixelOp op = filter;
+        final int version = filterVersion;
+        final int gen = generation;
+        final int w = (int) raw.getWidth();
+        final int h = (int) raw.getHeight();
+        final int[] px = Pixels.read(raw);
+        decoder.submit(() -> {
+            if (wanted.contains(k)) {
+                op.apply(px, w, h);
+            }
+            Platform.runLater(() -> {
+                if (gen != generation) {
+                    return;
+                }
+                pending.remove(k);
+                if (version == filterVersion && wanted.contains(k) && !shown.containsKey(k)) {
+                    addTile(k, Pixels.toImage(px, w, h));
+                }
+            });
+        });
+    }
+
+    private void addTile(TileKey k, Image img) {
+        int span = TILE << k.level;
+        int x = k.col * span;
+        int y = k.row * span;
+
+        ImageView iv = new ImageView(img);
+        iv.setSmooth(true);
+        iv.setLayoutX(x);
+        iv.setLayoutY(y);
+        iv.setFitWidth(Math.min(span, source.getWidth() - x));
+        iv.setFitHeight(Math.min(span, source.getHeight() - y));
+        shown.put(k, iv);
+        getChildren().add(iv);
+    }
+
+    private void put(TileKey k, Image img) {
+        cache.put(k, img);
+        cachedBytes += bytesOf(img);
+        Iterator<Map.Entry<TileKey, Image>> it = cache.entrySet().iterator();
+        while (cachedBytes > CACHE_BYTES && it.hasNext()) {
+            Map.Entry<TileKey, Image> e = it.next();
+            cachedBytes -= bytesOf(e.getValue());
+            it.remove();
+        }
+    }
+
+    private static long bytesOf(Image img) {
+        return (long) img.getWidth() * (long) img.getHeight() * 4;
+    }
+
+    /**
+     * Nivel de la pirámide cuyo lado mayor cabe en {@link #PREVIEW_MAX}.
+     */
+    public static int levelFor(int w, int h) {
+        int level = 0;
+        while ((Math.max(w, h) >> level) > PREVIEW_MAX) {
+            level++;
+        }
+        return level;
+    }
+
+    private static final class TileKey {
+
+        final int level, col, row;
+
+        TileKey(int level, int col, int row) {
+            this.level = level;
+            this.col = col;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey t = (TileKey) o;
+            return level == t.level && col == t.col && row == t.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(level, col, row);
+        }
+    }
+}
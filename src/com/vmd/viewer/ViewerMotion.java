@@ -0,0 +1,194 @@
+package com.vmd.viewer;
+
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Point2D;
+import javafx.scene.Node;
+import javafx.scene.transform.Scale;
+import javafx.scene.transform.Translate;
+
+/**
+ * Movimiento del visor: junta los deltas de rueda, trackpad y arrastre y
+ * los aplica a {@code pan}/{@code zoom} una sola vez por pulso.
+ *
+ * El zoom se acerca al objetivo con suavizado exponencial (en escala
+ * logarítmica) manteniendo fijo el punto bajo el cursor. Al soltar un
+ * arrastre el pan sigue con la velocidad que traía y se frena solo.
+ * Sin nada pendiente el timer se detiene.
+ */
+public class ViewerMotion {
+
+    public static final double MIN_ZOOM = 0.05;
+    public static final double MAX_ZOOM = 20;
+
+    private static final double ZOOM_RATE = 18;     // 1/s; más alto = más rápido
+    private static final double FRICTION = 5;       // 1/s
+    private static final double MIN_SPEED = 20;     // px/s; por debajo se detiene
+    private static final double MAX_DT = 0.05;      // s; tras una pausa larga
+
+    private final Translate pan;
+    private final Scale zoom;
+    private final Node content;     // coordenadas del punto fijo del zoom
+
+    // zoom pendiente
+    private double targetZoom;
+    private boolean zooming = false;
+    private Point2D pivot;          // en coordenadas de content
+    private double pivotSceneX, pivotSceneY;
+
+    // pan pendiente y velocidad (px/s de pantalla)
+    private double panDX, panDY;
+    private double vx, vy;
+    private boolean dragging = false;
+    private boolean coasting = false;
+
+    private long lastNanos = -1;
+    private boolean running = false;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            step(now);
+        }
+    };
+
+    public ViewerMotion(Translate pan, Scale zoom, Node content) {
+        this.pan = pan;
+        this.zoom = zoom;
+        this.content = content;
+        this.targetZoom = zoom.getX();
+    }
+
+    /**
+     * Multiplica el zoom objetivo; el punto de escena (x, y) queda fijo.
+     */
+    public void zoomBy(double factor, double sceneX, double sceneY) {
+        if (!zooming) {
+            targetZoom = zoom.getX();
+        }
+        targetZoom = clamp(targetZoom * factor, MIN_ZOOM, MAX_ZOOM);
+        pivot = content.sceneToLocal(sceneX, sceneY);
+        pivotSceneX = sceneX;
+        pivotSceneY = sceneY;
+        zooming = true;
+        coasting = false;
+        start();
+    }
+
+    /**
+     * Empieza un arrastre: corta la inercia que hubiera.
+     */
+    public void beginDrag() {
+        dragging = true;
+        coasting = false;
+        vx = 0;
+        vy = 0;
+    }
+
+    /**
+     * Desplaza la vista en píxeles de pantalla (arrastre o scroll de
+     * trackpad); se aplica en el próximo pulso.
+     */
+    public void panBy(double dx, double dy) {
+        panDX += dx;
+        panDY += dy;
+        start();
+    }
+
+    /**
+     * Termina el arrastre; si venía con velocidad la vista sigue por inercia.
+     */
+    public void endDrag() {
+        dragging = false;
+        coasting = Math.hypot(vx, vy) > MIN_SPEED;
+        if (coasting) {
+            start();
+        }
+    }
+
+    /**
+     * Descarta todo lo pendiente (por ejemplo, si otro código fija pan/zoom).
+     */
+    public void stop() {
+        timer.stop();
+        running = false;
+        zooming = false;
+        coasting = false;
+        dragging = false;
+        panDX = 0;
+        panDY = 0;
+        vx = 0;
+        vy = 0;
+        targetZoom = zoom.getX();
+    }
+
+    private void start() {
+        if (!running) {
+            running = true;
+            lastNanos = -1;
+            timer.start();
+        }
+    }
+
+    private void step(long now) {
+        double dt = lastNanos < 0 ? 1 / 60.0 : Math.min(MAX_DT, (now - lastNanos) / 1e9);
+        lastNanos = now;
+        double dx = 0;
+        double dy = 0;
+
+        if (panDX != 0 || panDY != 0) {
+            dx += panDX;
+            dy += panDY;
+            if (dragging && dt > 0) {
+                // velocidad suavizada, para que el último evento no mande
+                vx = 0.6 * (panDX / dt) + 0.4 * vx;
+                vy = 0.6 * (panDY / dt) + 0.4 * vy;
+            }
+            panDX = 0;
+            panDY = 0;
+        } else if (dragging) {
+            // quieto con el botón apretado: al soltar no hay inercia
+            vx = 0;
+            vy = 0;
+        }
+
+        if (coasting) {
+            dx += vx * dt;
+            dy += vy * dt;
+            double decay = Math.exp(-FRICTION * dt);
+            vx *= decay;
+            vy *= decay;
+            coasting = Math.hypot(vx, vy) > MIN_SPEED;
+        }
+
+        if (dx != 0 || dy != 0) {
+            pan.setX(pan.getX() + dx);
+            pan.setY(pan.getY() + dy);
+            pivotSceneX += dx;
+            pivotSceneY += dy;
+        }
+
+        if (zooming) {
+            double cur = zoom.getX();
+            double next = Math.exp(Math.log(cur) + (Math.log(targetZoom) - Math.log(cur)) * (1 - Math.exp(-ZOOM_RATE * dt)));
+            if (Math.abs(next / targetZoom - 1) < 1e-3) {
+                next = targetZoom;
+                zooming = false;
+            }
+            zoom.setX(next);
+            zoom.setY(next);
+            // el punto del contenido vuelve a quedar bajo el cursor
+            Point2D after = content.localToScene(pivot);
+            pan.setX(pan.getX() + pivotSceneX - after.getX());
+            pan.setY(pan.getY() + pivotSceneY - after.getY());
+        }
+
+        if (!zooming && !coasting && panDX == 0 && panDY == 0 && !dragging) {
+            timer.stop();
+            running = false;
+        }
+    }
+
+    private static double clamp(double v, double min, double max) {
+        return (v < min) ? min : (v > max ? max : v);
+    }
+}
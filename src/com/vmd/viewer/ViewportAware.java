@@ -0,0 +1,17 @@
+package com.vmd.viewer;
+
+import javafx.geometry.Bounds;
+
+/**
+ * Una capa del visor que dibuja solo lo que cae en el área visible, al
+ * nivel de detalle que pide la escala. El visor la avisa en cada cambio de
+ * pan, zoom o tamaño.
+ */
+public interface ViewportAware {
+
+    /**
+     * @param visible área visible en coordenadas de {@code layers}
+     * @param scale   píxeles de pantalla por píxel de imagen
+     */
+    void setViewport(Bounds visible, double scale);
+}